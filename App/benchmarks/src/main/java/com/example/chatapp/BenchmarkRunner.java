@@ -0,0 +1,28 @@
+package com.example.chatapp;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Entry point of benchmarks.jar. Takes the usual JMH arguments, and unless a result format is
+// given also writes the results as JSON to jmh-results/<timestamp>.json, so runs can be
+// compared over time.
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(List.of(args));
+        boolean listingOnly = jmhArgs.stream().anyMatch(arg -> arg.startsWith("-l") || arg.equals("-h"));
+        if (!jmhArgs.contains("-rf") && !listingOnly) {
+            Path dir = Files.createDirectories(Path.of("jmh-results"));
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            jmhArgs.addAll(List.of("-rf", "json", "-rff", dir.resolve(stamp + ".json").toString()));
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.chatapp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Contact lookups at scale: resolving the sender of each incoming message to a contact, and
+// the search box. linearScan is how a sender was found before ContactIndex, by walking the
+// contact list. Probe numbers are copied per call, as numbers parsed from a response would be.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactLookupBenchmark {
+    private static final int PROBES = 100;
+    private static final String[] FIRST_NAMES = {"Asha", "Ravi", "Meera", "Karthik", "Divya", "Arjun", "Priya",
+        "Vikram", "Lakshmi", "Suresh", "Anita", "Rahul", "Kavya", "Naveen", "Deepa", "Sanjay"};
+
+    @Param({"1000", "10000", "100000"})
+    int contactCount;
+
+    ContactIndex index;
+    String[] names;
+    String[] mobiles;
+    char[][] probes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        index = new ContactIndex();
+        names = new String[contactCount];
+        mobiles = new String[contactCount];
+        for (int i = 0; i < contactCount; i++) {
+            names[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + i;
+            mobiles[i] = String.valueOf(9_000_000_000L + random.nextInt(1_000_000_000));
+            index.put(names[i], mobiles[i]);
+        }
+        probes = new char[PROBES][];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = mobiles[random.nextInt(contactCount)].toCharArray();
+        }
+    }
+
+    @Benchmark
+    public void nameForIndexed(Blackhole bh) {
+        for (char[] mobile : probes) bh.consume(index.nameFor(new String(mobile)));
+    }
+
+    @Benchmark
+    public void nameForLinearScan(Blackhole bh) {
+        for (char[] probe : probes) {
+            String mobile = new String(probe);
+            String name = null;
+            for (int i = 0; i < mobiles.length && name == null; i++) {
+                if (mobiles[i].equals(mobile)) name = names[i];
+            }
+            bh.consume(name);
+        }
+    }
+
+    // One- to three-character queries are a single posting lookup
+    @Benchmark
+    public List<String> searchShort() {
+        return index.search("ra");
+    }
+
+    // Longer queries intersect trigram postings and verify the candidates
+    @Benchmark
+    public List<String> searchLong() {
+        return index.search("meera 12");
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.chatapp;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Retained heap of loadedMessageIds as a HashSet<String> versus a MessageIdSet, measured as
+// the used-heap difference after forcing GC. Run with a fixed heap for stable numbers:
+//   java -Xms1g -Xmx1g -cp target/benchmarks.jar com.example.chatapp.IdSetFootprint
+public class IdSetFootprint {
+
+    public static void main(String[] args) {
+        for (int count : new int[] {10_000, 100_000, 500_000}) {
+            // Ids are rebuilt for each measurement so the set under test owns every String it holds
+            long hashSetBytes = retained(() -> {
+                Set<String> set = new HashSet<>();
+                for (String id : Payloads.messageIds(count, 1)) set.add(new String(id.toCharArray()));
+                return set;
+            });
+            long idSetBytes = retained(() -> {
+                MessageIdSet set = new MessageIdSet();
+                for (String id : Payloads.messageIds(count, 1)) set.add(id);
+                return set;
+            });
+            System.out.printf("%,9d ids: HashSet<String> %,12d bytes (%5.1f/id), MessageIdSet %,12d bytes (%5.1f/id), %.1fx smaller%n",
+                count, hashSetBytes, (double) hashSetBytes / count, idSetBytes, (double) idSetBytes / count,
+                (double) hashSetBytes / idSetBytes);
+        }
+    }
+
+    private static long retained(java.util.function.Supplier<Object> build) {
+        long before = usedAfterGc();
+        Object set = build.get();
+        long after = usedAfterGc();
+        java.lang.ref.Reference.reachabilityFence(set);
+        return after - before;
+    }
+
+    private static long usedAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
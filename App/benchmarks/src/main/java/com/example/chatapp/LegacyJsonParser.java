@@ -0,0 +1,67 @@
+package com.example.chatapp;
+
+import java.util.*;
+
+// The indexOf/substring parser BackendClient used before JsonReader, kept as a baseline
+final class LegacyJsonParser {
+
+    private LegacyJsonParser() {
+    }
+
+    static String extractValue(String json, String key) {
+        String searchKey = "\"" + key + "\":";
+        int start = json.indexOf(searchKey);
+        if (start == -1) return "";
+        
+        start += searchKey.length();
+        while (start < json.length() && (json.charAt(start) == ' ' || json.charAt(start) == '"')) {
+            start++;
+        }
+        
+        int end = start;
+        if (start > 0 && json.charAt(start - 1) == '"') {
+            while (end < json.length() && json.charAt(end) != '"') {
+                end++;
+            }
+        } else {
+            while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+                end++;
+            }
+        }
+        
+        return json.substring(start, end).trim();
+    }
+
+    static List<Map<String, String>> parseMessagesArray(String json) {
+        List<Map<String, String>> messages = new ArrayList<>();
+        if (!json.startsWith("[")) return messages;
+        
+        int depth = 0;
+        int objStart = -1;
+        
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '{') {
+                if (depth == 0) objStart = i;
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && objStart != -1) {
+                    String objJson = json.substring(objStart, i + 1);
+                    Map<String, String> msg = new HashMap<>();
+                    msg.put("id", extractValue(objJson, "id"));
+                    msg.put("sender_mobile", extractValue(objJson, "sender_mobile"));
+                    msg.put("receiver_mobile", extractValue(objJson, "receiver_mobile"));
+                    msg.put("content", extractValue(objJson, "content"));
+                    msg.put("timestamp", extractValue(objJson, "timestamp"));
+                    msg.put("is_file", extractValue(objJson, "is_file"));
+                    msg.put("file_name", extractValue(objJson, "file_name"));
+                    msg.put("file_data", extractValue(objJson, "file_data"));
+                    messages.add(msg);
+                }
+            }
+        }
+        
+        return messages;
+    }
+}
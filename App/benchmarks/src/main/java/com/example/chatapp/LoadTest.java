@@ -0,0 +1,187 @@
+package com.example.chatapp;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drives the backend with many simulated users, each a BackendClient on its own virtual
+// thread: it registers, logs in, then polls with delta sync and sends to random other users
+// until the run ends. Point it at a local server started with CHATAPP_FAKE_STORE=1 so the
+// numbers measure the server, not Firestore:
+//   java -Dloadtest.sessions=1000 -cp target/benchmarks.jar com.example.chatapp.LoadTest
+//
+// Latency is measured from when an operation was due rather than when it was sent, so a
+// session that falls behind a slow server shows up as latency instead of quietly polling
+// less (coordinated omission). Polls and sends are only counted once every session has
+// started; delivery is the time from a send being due to the receiver's poll returning it.
+public class LoadTest {
+    private static final String BASE_URL = System.getProperty("loadtest.url", "http://localhost:8000");
+    private static final int SESSIONS = Integer.getInteger("loadtest.sessions", 100);
+    private static final long RAMP_MILLIS = Long.getLong("loadtest.rampSeconds", 10) * 1000;
+    private static final long DURATION_MILLIS = Long.getLong("loadtest.durationSeconds", 60) * 1000;
+    private static final long POLL_MILLIS = Long.getLong("loadtest.pollMillis", 3000);
+    private static final double SENDS_PER_SECOND = Double.parseDouble(System.getProperty("loadtest.sendsPerSecond", "0.2"));
+    private static final long FIRST_MOBILE = Long.getLong("loadtest.firstMobile", 7_000_000_000L);
+    private static final String TAG = "load-test ";
+
+    private static final String[] OPERATIONS = {"register", "login", "sync", "send_message", "delivery"};
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new LinkedHashMap<>();
+    private final AtomicReferenceArray<String> readyMobiles = new AtomicReferenceArray<>(SESSIONS);
+    private final AtomicInteger readyCount = new AtomicInteger();
+    private final HttpClient httpClient = BackendClient.newHttpClient(BASE_URL, Duration.ofSeconds(10));
+    private final long startNanos = System.nanoTime();
+    private final long windowStartNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(RAMP_MILLIS);
+    private final long endNanos = windowStartNanos + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+
+    public static void main(String[] args) throws InterruptedException {
+        // Failures are counted in the report; logging each one would swamp it
+        if (System.getProperty("chatapp.log.level") == null) {
+            System.setProperty("chatapp.log.level", "ERROR");
+        }
+        new LoadTest().run();
+    }
+
+    LoadTest() {
+        for (String operation : OPERATIONS) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf("%d sessions against %s: ramp %d s, measure %d s, poll every %d ms, %.2f sends/s each%n",
+            SESSIONS, BASE_URL, RAMP_MILLIS / 1000, DURATION_MILLIS / 1000, POLL_MILLIS, SENDS_PER_SECOND);
+        try (ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < SESSIONS; i++) {
+                long startAt = startNanos + TimeUnit.MILLISECONDS.toNanos(RAMP_MILLIS * i / SESSIONS);
+                String mobile = String.valueOf(FIRST_MOBILE + i);
+                sessions.submit(() -> session(mobile, startAt));
+            }
+        }
+        report();
+    }
+
+    private void session(String mobile, long startAt) {
+        sleepUntil(startAt);
+        BackendClient client = new BackendClient(BASE_URL, httpClient, Duration.ofSeconds(30));
+        if (!timed("register", startAt, () -> client.register(mobile, "Load " + mobile))) return;
+        if (!timed("login", System.nanoTime(), () -> client.login(mobile))) return;
+        readyMobiles.set(readyCount.getAndIncrement(), mobile);
+
+        Random random = ThreadLocalRandom.current();
+        Set<String> seen = new HashSet<>(); // The boundary message comes back on the next poll
+        String cursor = null;
+        long nextPoll = System.nanoTime();
+        long nextSend = nextPoll + nextSendDelay(random);
+        while (true) {
+            long due = Math.min(nextPoll, nextSend);
+            if (due >= endNanos) return;
+            sleepUntil(due);
+            if (due == nextPoll) {
+                cursor = poll(client, cursor, seen, due);
+                // Jittered like AdaptiveSyncScheduler, so sessions don't poll in lockstep
+                nextPoll += (long) (TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS) * (0.8 + 0.4 * random.nextDouble()));
+            } else {
+                send(client, random, due);
+                nextSend += nextSendDelay(random);
+            }
+        }
+    }
+
+    private String poll(BackendClient client, String cursor, Set<String> seen, long due) {
+        BackendClient.MessageBatch batch;
+        do {
+            batch = client.getMessages(cursor);
+            record("sync", due, !batch.failed);
+            cursor = batch.cursor;
+            long now = System.nanoTime();
+            for (ChatMessage msg : batch.messages) {
+                if (!seen.add(msg.id()) || !msg.receiverMobile().equals(client.getCurrentUserMobile())) continue;
+                long sentDue = sentDueNanos(msg.content());
+                if (sentDue >= windowStartNanos) {
+                    latencies.get("delivery").record(now - sentDue);
+                }
+            }
+            due = now; // Follow-up pages are due as soon as the previous one arrives
+        } while (batch.hasMore && !batch.messages.isEmpty());
+        return cursor;
+    }
+
+    private void send(BackendClient client, Random random, long due) {
+        int ready = readyCount.get();
+        String receiver = ready > 1 ? readyMobiles.get(random.nextInt(ready)) : null;
+        if (receiver == null || receiver.equals(client.getCurrentUserMobile())) return;
+        boolean sent;
+        try {
+            client.sendMessage(receiver, TAG + due, UUID.randomUUID().toString());
+            sent = true;
+        } catch (IOException e) {
+            sent = false;
+        }
+        record("send_message", due, sent);
+    }
+
+    // Exponential gaps make sends a Poisson process, like independent users typing
+    private static long nextSendDelay(Random random) {
+        if (SENDS_PER_SECOND <= 0) return Long.MAX_VALUE / 2;
+        return (long) (-Math.log(1 - random.nextDouble()) / SENDS_PER_SECOND * 1e9);
+    }
+
+    private static long sentDueNanos(String content) {
+        if (!content.startsWith(TAG)) return Long.MIN_VALUE;
+        try {
+            return Long.parseLong(content.substring(TAG.length()));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private boolean timed(String operation, long due, java.util.function.BooleanSupplier call) {
+        boolean succeeded = call.getAsBoolean();
+        latencies.get(operation).record(System.nanoTime() - due);
+        if (!succeeded) errors.get(operation).increment();
+        return succeeded;
+    }
+
+    // Polls and sends only count inside the measurement window
+    private void record(String operation, long due, boolean succeeded) {
+        if (due < windowStartNanos) return;
+        latencies.get(operation).record(System.nanoTime() - due);
+        if (!succeeded) errors.get(operation).increment();
+    }
+
+    private static void sleepUntil(long nanos) {
+        long remaining = nanos - System.nanoTime();
+        if (remaining <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report() {
+        System.out.printf("%n%-13s %9s %9s %8s %9s %9s %9s %9s%n",
+            "operation", "count", "per sec", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (String operation : OPERATIONS) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long count = histogram.count();
+            // Logins happen during the ramp, everything else during the measurement window
+            long millis = operation.equals("register") || operation.equals("login") ? RAMP_MILLIS : DURATION_MILLIS;
+            long failed = errors.get(operation).sum();
+            System.out.printf("%-13s %9d %9.1f %7.2f%% %9.1f %9.1f %9.1f %9.1f%n",
+                operation, count, count * 1000.0 / Math.max(millis, 1), count == 0 ? 0 : 100.0 * failed / count,
+                histogram.percentileMicros(50) / 1000.0, histogram.percentileMicros(99) / 1000.0,
+                histogram.percentileMicros(99.9) / 1000.0, histogram.maxMicros() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.chatapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Costs of one chat row: measuring a bubble from scratch (line splitting and text metrics, paid
+// once per message), the cached size every later layout pass gets, and painting it into an
+// offscreen image the way the message list paints each visible row.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MessageBubbleBenchmark {
+
+    @Param({"short", "multiline", "file"})
+    String kind;
+
+    ChatApp.Message message;
+    ChatApp.MessageBubble bubble;
+    BufferedImage image;
+    Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        message = switch (kind) {
+            case "short" -> new ChatApp.Message("sent", "14:30", "See you at 6", true, false, "", "id", 0);
+            case "multiline" -> new ChatApp.Message("received", "14:31",
+                "Here's the plan for tomorrow:\n1. Pick up the keys\n2. Drive to the venue\n3. Set up the tables\n"
+                    + "4. Lunch at noon\n5. Guests arrive at 3\nLet me know if anything changes!", false, false, "", "id", 0);
+            case "file" -> new ChatApp.Message("sent", "14:32", "📎 report.pdf", true, true, "report.pdf", "id", 2_500_000);
+            default -> throw new IllegalArgumentException(kind);
+        };
+        bubble = new ChatApp.MessageBubble();
+        bubble.setMessage(message);
+        Dimension size = bubble.getPreferredSize();
+        bubble.setSize(size);
+        image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public Dimension measure() {
+        message.layout = null;
+        return bubble.getPreferredSize();
+    }
+
+    @Benchmark
+    public Dimension measureCached() {
+        return bubble.getPreferredSize();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        bubble.paintComponent(graphics);
+        return image;
+    }
+}
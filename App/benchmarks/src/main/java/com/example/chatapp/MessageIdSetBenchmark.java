@@ -0,0 +1,82 @@
+package com.example.chatapp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Dedup lookups as ChatApp.displayMessages does them: every id in a poll is checked against
+// everything already loaded. Probe ids are copied per call, as ids parsed from a fresh
+// response would be, so String's cached hash code doesn't flatter HashSet.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageIdSetBenchmark {
+    private static final int PROBES = 1000;
+
+    @Param({"10000", "100000", "500000"})
+    int loadedCount;
+
+    Set<String> hashSet;
+    MessageIdSet idSet;
+    char[][] hits;
+    char[][] misses;
+
+    @Setup
+    public void setUp() {
+        String[] loaded = Payloads.messageIds(loadedCount, 1);
+        hashSet = new HashSet<>();
+        idSet = new MessageIdSet();
+        for (String id : loaded) {
+            hashSet.add(id);
+            idSet.add(id);
+        }
+        String[] absent = Payloads.messageIds(PROBES, 2);
+        hits = new char[PROBES][];
+        misses = new char[PROBES][];
+        for (int i = 0; i < PROBES; i++) {
+            hits[i] = loaded[(int) ((long) i * loadedCount / PROBES)].toCharArray();
+            misses[i] = absent[i].toCharArray();
+        }
+    }
+
+    @Benchmark
+    public void hashSetHits(Blackhole bh) {
+        for (char[] id : hits) bh.consume(hashSet.contains(new String(id)));
+    }
+
+    @Benchmark
+    public void hashSetMisses(Blackhole bh) {
+        for (char[] id : misses) bh.consume(hashSet.contains(new String(id)));
+    }
+
+    @Benchmark
+    public void idSetHits(Blackhole bh) {
+        for (char[] id : hits) bh.consume(idSet.contains(new String(id)));
+    }
+
+    @Benchmark
+    public void idSetMisses(Blackhole bh) {
+        for (char[] id : misses) bh.consume(idSet.contains(new String(id)));
+    }
+
+    // Building the set from scratch, as a full sync does
+    @Benchmark
+    public Set<String> hashSetFill() {
+        Set<String> set = new HashSet<>();
+        for (char[] id : hits) set.add(new String(id));
+        return set;
+    }
+
+    @Benchmark
+    public MessageIdSet idSetFill() {
+        MessageIdSet set = new MessageIdSet();
+        for (char[] id : hits) set.add(new String(id));
+        return set;
+    }
+}
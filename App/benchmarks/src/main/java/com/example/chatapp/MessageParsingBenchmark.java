@@ -0,0 +1,55 @@
+package com.example.chatapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Parses a 10k-message /messages response with the streaming codec and the old parser.
+// The legacy parser works on a String, so it also pays for decoding the body first,
+// as BackendClient.readResponse used to.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageParsingBenchmark {
+
+    @Param({"10000"})
+    int messageCount;
+
+    // 0 = text only; otherwise every Nth message carries an attachment
+    @Param({"0", "100"})
+    int fileEvery;
+
+    byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = Payloads.messagesJson(messageCount, fileEvery, 64 * 1024).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<ChatMessage> streaming() throws IOException {
+        try (JsonReader reader = new JsonReader(new ByteArrayInputStream(body))) {
+            List<ChatMessage> messages = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                messages.add(ChatMessage.read(reader));
+            }
+            reader.endArray();
+            return messages;
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, String>> legacy() {
+        return LegacyJsonParser.parseMessagesArray(new String(body, StandardCharsets.UTF_8));
+    }
+}
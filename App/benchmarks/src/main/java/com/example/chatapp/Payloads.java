@@ -0,0 +1,54 @@
+package com.example.chatapp;
+
+import java.util.Base64;
+import java.util.Random;
+
+// Synthetic /messages responses shaped like what the backend returns
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    static String messagesJson(int count, int fileEvery, int fileBytes) {
+        Random random = new Random(42);
+        byte[] file = new byte[fileBytes];
+        random.nextBytes(file);
+        String fileData = Base64.getEncoder().encodeToString(file);
+
+        JsonWriter json = new JsonWriter(count * 220 + (fileEvery > 0 ? count / fileEvery * fileData.length() : 0));
+        json.beginArray();
+        for (int i = 0; i < count; i++) {
+            boolean isFile = fileEvery > 0 && i % fileEvery == 0;
+            String sender = i % 2 == 0 ? "9000000001" : "9000000002";
+            String receiver = i % 2 == 0 ? "9000000002" : "9000000001";
+            json.beginObject()
+                .name("sender_mobile").value(sender)
+                .name("receiver_mobile").value(receiver)
+                .name("content").value(isFile ? "📎 report-" + i + ".pdf" : "Message number " + i + ", see you at " + (i % 24) + ":00")
+                .name("timestamp").value(String.format("2025-11-06 %02d:%02d:%02d", i / 3600 % 24, i / 60 % 60, i % 60))
+                .name("is_file").value(isFile);
+            if (isFile) {
+                json.name("file_name").value("report-" + i + ".pdf")
+                    .name("file_data").value(fileData);
+            }
+            json.name("id").value(String.format("msg%017d", i))
+                .endObject();
+        }
+        return json.endArray().toString();
+    }
+
+    // Random 20-character ids like the ones Firestore assigns
+    static String[] messageIds(int count, long seed) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        Random random = new Random(seed);
+        String[] ids = new String[count];
+        char[] id = new char[20];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < id.length; j++) {
+                id[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            ids[i] = new String(id);
+        }
+        return ids;
+    }
+}
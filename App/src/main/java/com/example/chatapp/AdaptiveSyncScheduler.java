@@ -0,0 +1,162 @@
+package com.example.chatapp;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Decides when to poll for messages. While the window is focused and the user is active it
+// polls every activeMillis; when the window loses focus or the user goes idle the interval
+// doubles on each tick up to maxMillis, and so does it after each failed sync. Every delay is
+// jittered by +/-20% so a fleet of clients doesn't poll in lockstep. Regaining focus polls at
+// once and drops back to the fast interval.
+public class AdaptiveSyncScheduler {
+    private static final double JITTER = 0.2;
+    private static final int MAX_DOUBLINGS = 10;
+    private static final long RATE_WINDOW_MILLIS = 60_000;
+
+    private final Runnable poll;
+    private final long activeMillis;
+    private final long maxMillis;
+    private final long idleAfterMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sync-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> next;
+    private boolean focused = true;
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+    private int idleTicks;    // Ticks since the user was last active and focused
+    private int failures;     // Consecutive failed syncs
+    private long currentDelayMillis;
+
+    private final Deque<Long> recentSyncs = new ArrayDeque<>(); // Completion times within the rate window
+    private long totalSyncs;
+    private long totalFailures;
+    private long totalTicks;
+
+    // poll is run on every tick; it should only start a sync (never block) and report the
+    // outcome through recordSync
+    public AdaptiveSyncScheduler(Runnable poll, long activeMillis, long maxMillis, long idleAfterMillis) {
+        this.poll = poll;
+        this.activeMillis = activeMillis;
+        this.maxMillis = maxMillis;
+        this.idleAfterMillis = idleAfterMillis;
+    }
+
+    public synchronized void start() {
+        schedule(nextDelay());
+    }
+
+    public synchronized void stop() {
+        if (next != null) next.cancel(false);
+        timer.shutdownNow();
+    }
+
+    public synchronized void setFocused(boolean focused) {
+        boolean regained = focused && !this.focused;
+        this.focused = focused;
+        if (regained) {
+            userActive();
+            idleTicks = 0;
+            // Catch up straight away instead of waiting out a long idle interval
+            timer.execute(this::tick);
+        }
+    }
+
+    // Called on user input; cheap enough to run on every key press and click
+    public void userActive() {
+        lastActivityMillis = System.currentTimeMillis();
+    }
+
+    // Every sync attempt, whoever started it, counts towards the request rate
+    public synchronized void recordSync(boolean succeeded) {
+        long now = System.currentTimeMillis();
+        recentSyncs.addLast(now);
+        trimRateWindow(now);
+        totalSyncs++;
+        if (succeeded) {
+            if (failures == 0) return;
+            failures = 0;
+        } else {
+            failures++;
+            totalFailures++;
+        }
+        // The backoff changed, so don't wait out a delay chosen under the old one
+        schedule(nextDelay());
+    }
+
+    private void tick() {
+        synchronized (this) {
+            totalTicks++;
+            if (!isActive()) {
+                idleTicks = Math.min(idleTicks + 1, MAX_DOUBLINGS);
+            } else {
+                idleTicks = 0;
+            }
+            schedule(nextDelay());
+        }
+        try {
+            poll.run();
+        } catch (RuntimeException e) {
+            Log.sampled(Log.Level.WARN, "sync-poll", "Sync poll failed: " + e.getMessage());
+        }
+    }
+
+    private boolean isActive() {
+        return focused && System.currentTimeMillis() - lastActivityMillis < idleAfterMillis;
+    }
+
+    private long nextDelay() {
+        int doublings = Math.min(Math.max(idleTicks, failures), MAX_DOUBLINGS);
+        long base = Math.min(activeMillis << doublings, maxMillis);
+        double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Math.max(1, (long) (base * jitter));
+    }
+
+    private void schedule(long delayMillis) {
+        if (timer.isShutdown()) return;
+        if (next != null) next.cancel(false);
+        currentDelayMillis = delayMillis;
+        next = timer.schedule(this::tick, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void trimRateWindow(long now) {
+        while (!recentSyncs.isEmpty() && now - recentSyncs.peekFirst() > RATE_WINDOW_MILLIS) {
+            recentSyncs.removeFirst();
+        }
+    }
+
+    // Syncs completed over the last minute
+    public synchronized int getSyncsPerMinute() {
+        trimRateWindow(System.currentTimeMillis());
+        return recentSyncs.size();
+    }
+
+    public synchronized long getCurrentDelayMillis() {
+        return currentDelayMillis;
+    }
+
+    public synchronized int getFailureStreak() {
+        return failures;
+    }
+
+    public synchronized long getTotalSyncs() {
+        return totalSyncs;
+    }
+
+    public synchronized long getTotalFailures() {
+        return totalFailures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveSyncScheduler[delay=" + currentDelayMillis + "ms, syncs/min=" + getSyncsPerMinute()
+            + ", ticks=" + totalTicks + ", syncs=" + totalSyncs + ", failures=" + totalFailures
+            + ", failureStreak=" + failures + ", focused=" + focused + ", idleTicks=" + idleTicks + "]";
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.chatapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Attachments sent or saved on this device, kept once per content under attachments/<sha256>
+// however many messages carry them, so a file forwarded between chats is stored and fetched
+// only once. Bytes go file to file through FileChannel.transferTo and never sit on the heap;
+// the OS page cache keeps recently used ones in memory. The directory is bounded by total
+// size, evicting the least recently used content first, with last use kept as each file's
+// modified time so the order survives restarts. Messages the server sent without a hash are
+// mapped to the content they turned out to hold in messages.properties.
+public class AttachmentStore {
+    private static final String TEMP_SUFFIX = ".part";
+    private static final String MESSAGES_FILE = "messages.properties";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true); // digest -> bytes, LRU first
+    private long totalBytes;
+    private final Properties digestsByMessage = new Properties(); // message id -> digest
+
+    private AttachmentStore(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static AttachmentStore open(Path dir, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        AttachmentStore store = new AttachmentStore(dir, maxBytes);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.toList();
+        }
+        List<Map.Entry<Path, FileTime>> stored = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file); // Left by a download that never finished
+            } else if (isDigest(file.getFileName().toString())) {
+                stored.add(Map.entry(file, Files.getLastModifiedTime(file)));
+            }
+        }
+        stored.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<Path, FileTime> entry : stored) {
+            long size = Files.size(entry.getKey());
+            store.sizes.put(entry.getKey().getFileName().toString(), size);
+            store.totalBytes += size;
+        }
+        Path messages = dir.resolve(MESSAGES_FILE);
+        if (Files.exists(messages)) {
+            try (Reader in = Files.newBufferedReader(messages, StandardCharsets.UTF_8)) {
+                store.digestsByMessage.load(in);
+            }
+        }
+        store.evict(null);
+        store.digestsByMessage.values().removeIf(digest -> !store.sizes.containsKey(digest));
+        return store;
+    }
+
+    public synchronized boolean contains(String sha256) {
+        return sha256 != null && sizes.containsKey(sha256);
+    }
+
+    // The content a message without a server hash held when it was last saved, if still stored
+    public synchronized String digestFor(String messageId) {
+        String sha256 = digestsByMessage.getProperty(messageId);
+        return sha256 != null && sizes.containsKey(sha256) ? sha256 : null;
+    }
+
+    public synchronized void remember(String messageId, String sha256) {
+        if (sha256.equals(digestsByMessage.setProperty(messageId, sha256))) return;
+        saveMessages();
+    }
+
+    // Copies the content to target; false if it isn't stored
+    public boolean copyTo(String sha256, Path target) throws IOException {
+        Path file;
+        synchronized (this) {
+            if (sha256 == null || sizes.get(sha256) == null) return false;
+            file = dir.resolve(sha256);
+        }
+        FileChannel in;
+        try {
+            in = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the open
+            forget(sha256);
+            return false;
+        }
+        try (in; FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // The copy is done; only this content's place in the eviction order is stale
+            Log.warn("Could not mark attachment " + sha256 + " as used: " + e.getMessage());
+        }
+        return true;
+    }
+
+    // Somewhere to download into before adopt(); the name marks it for cleanup if never adopted
+    public Path newTempFile() {
+        return dir.resolve(UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    // Takes ownership of a file written into newTempFile(), storing it under its content
+    // hash. Content already stored is kept once and the new copy deleted. Returns the hash.
+    public String adopt(Path downloaded) throws IOException {
+        String sha256;
+        try (FileChannel channel = FileChannel.open(downloaded, StandardOpenOption.READ)) {
+            sha256 = digest(channel);
+        }
+        Path file = dir.resolve(sha256);
+        synchronized (this) {
+            if (sizes.containsKey(sha256)) {
+                Files.deleteIfExists(downloaded);
+            } else {
+                Files.move(downloaded, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long size = Files.size(file);
+                sizes.put(sha256, size);
+                totalBytes += size;
+                evict(sha256);
+            }
+        }
+        return sha256;
+    }
+
+    // Stores a copy of a file from elsewhere on disk, e.g. one the user just sent
+    public String importFile(Path source) throws IOException {
+        Path temp = newTempFile();
+        try {
+            Files.copy(source, temp);
+            return adopt(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private synchronized void forget(String sha256) {
+        Long size = sizes.remove(sha256);
+        if (size != null) totalBytes -= size;
+    }
+
+    // Called with the lock held
+    private void saveMessages() {
+        Path tmp = dir.resolve(MESSAGES_FILE + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                digestsByMessage.store(out, "Attachment content by message id");
+            }
+            Files.move(tmp, dir.resolve(MESSAGES_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Could not save attachment message ids: " + e.getMessage());
+        }
+    }
+
+    // Called with the lock held. keep is the content just added, which the caller is about to
+    // copy out, so it stays even if it alone is over the limit; it goes on the next eviction.
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) continue;
+            try {
+                Files.deleteIfExists(dir.resolve(entry.getKey()));
+            } catch (IOException e) {
+                Log.warn("Could not evict attachment " + entry.getKey() + ": " + e.getMessage());
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private static String digest(FileChannel channel) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every JVM", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            sha256.update(buffer);
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(sha256.digest());
+    }
+
+    private static boolean isDigest(String name) {
+        if (name.length() != 64) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AttachmentStore[files=" + sizes.size() + ", bytes=" + totalBytes + "]";
+    }
+}
@@ -1,19 +1,78 @@
 package com.example.chatapp;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class BackendClient {
-    private static final String BASE_URL = "http://localhost:8000";
+    private static final String DEFAULT_BASE_URL = "http://localhost:8000";
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    // One client for every request and the push socket, so connections are pooled and kept alive
+    private final HttpClient httpClient;
     private String currentUserMobile;
     private String currentUsername;
     private String currentUserAbout;
 
+    private static final long MIN_PUSH_BACKOFF_MILLIS = 1000;
+    private static final long MAX_PUSH_BACKOFF_MILLIS = 30000;
+    private final ScheduledExecutorService pushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "push-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile WebSocket pushSocket;
+    private volatile boolean pushEnabled;
+    private volatile long pushBackoffMillis = MIN_PUSH_BACKOFF_MILLIS;
+    private Consumer<ChatMessage> pushHandler;
+    private Runnable pushConnectedHandler;
+
     public BackendClient() {
+        this(DEFAULT_BASE_URL, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    public BackendClient(String baseUrl, Duration connectTimeout, Duration requestTimeout) {
+        this(baseUrl, newHttpClient(baseUrl, connectTimeout), requestTimeout);
+    }
+
+    // Clients built on one HttpClient share its connection pool and selector thread, so many
+    // sessions can run in one process (see LoadTest)
+    public BackendClient(String baseUrl, HttpClient httpClient, Duration requestTimeout) {
+        this.baseUrl = baseUrl;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = httpClient;
+    }
+
+    public static HttpClient newHttpClient(String baseUrl, Duration connectTimeout) {
+        return HttpClient.newBuilder()
+            // HTTP/2 is negotiated via ALPN over TLS; uvicorn doesn't speak h2c, so plain
+            // http stays on keep-alive HTTP/1.1 instead of sending an upgrade every request
+            .version(baseUrl.startsWith("https") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(connectTimeout)
+            .build();
     }
 
     public boolean register(String mobile, String username) {
@@ -22,203 +81,669 @@ public class BackendClient {
 
     public boolean register(String mobile, String username, String about) {
         try {
-            String json;
+            JsonWriter json = new JsonWriter().beginObject()
+                .name("mobile").value(mobile)
+                .name("username").value(username);
             if (about != null && !about.isEmpty()) {
-                String escapedAbout = about.replace("\"", "\\\"").replace("\n", "\\n");
-                json = String.format("{\"mobile\":\"%s\",\"username\":\"%s\",\"about\":\"%s\"}", 
-                    mobile, username, escapedAbout);
-            } else {
-                json = String.format("{\"mobile\":\"%s\",\"username\":\"%s\"}", mobile, username);
+                json.name("about").value(about);
             }
             
-            String response = sendPostRequest("/register", json);
+            Map<String, String> response = sendPostRequest("/register", json.endObject().toString(), BackendClient::readFlatObject);
             
-            this.currentUserMobile = extractValue(response, "mobile");
-            this.currentUsername = extractValue(response, "username");
-            this.currentUserAbout = extractValue(response, "about");
+            this.currentUserMobile = response.getOrDefault("mobile", "");
+            this.currentUsername = response.getOrDefault("username", "");
+            this.currentUserAbout = response.get("about");
             if (this.currentUserAbout == null || this.currentUserAbout.isEmpty()) {
                 this.currentUserAbout = "Hey there! I am using Chat App";
             }
             return true;
         } catch (Exception e) {
-            System.err.println("Registration failed: " + e.getMessage());
+            Log.warn("Registration failed: " + e.getMessage());
             return false;
         }
     }
 
     public boolean login(String mobile) {
         try {
-            String json = String.format("{\"mobile\":\"%s\"}", mobile);
-            String response = sendPostRequest("/login", json);
+            String json = new JsonWriter().beginObject().name("mobile").value(mobile).endObject().toString();
+            Map<String, String> response = sendPostRequest("/login", json, BackendClient::readFlatObject);
             
-            this.currentUserMobile = extractValue(response, "mobile");
-            this.currentUsername = extractValue(response, "username");
-            this.currentUserAbout = extractValue(response, "about");
+            this.currentUserMobile = response.getOrDefault("mobile", "");
+            this.currentUsername = response.getOrDefault("username", "");
+            this.currentUserAbout = response.get("about");
             if (this.currentUserAbout == null || this.currentUserAbout.isEmpty()) {
                 this.currentUserAbout = "Hey there! I am using Chat App";
             }
             return true;
         } catch (Exception e) {
-            System.err.println("Login failed: " + e.getMessage());
+            Log.warn("Login failed: " + e.getMessage());
             return false;
         }
     }
 
-    public boolean sendMessage(String receiverMobile, String content) {
-        try {
-            String escapedContent = content.replace("\"", "\\\"").replace("\n", "\\n");
-            String json = String.format("{\"sender_mobile\":\"%s\",\"receiver_mobile\":\"%s\",\"content\":\"%s\"}", 
-                currentUserMobile, receiverMobile, escapedContent);
-            String response = sendPostRequest("/send_message", json);
-            return response.contains("Message sent");
-        } catch (Exception e) {
-            System.err.println("Send message failed: " + e.getMessage());
-            return false;
+    // Sends one message and returns the id the server stored it under. clientId makes the
+    // send idempotent: retrying with the same clientId returns the first copy's id.
+    public String sendMessage(String receiverMobile, String content, String clientId) throws IOException {
+        return await(sendMessageAsync(receiverMobile, content, clientId));
+    }
+
+    public CompletableFuture<String> sendMessageAsync(String receiverMobile, String content, String clientId) {
+        String json = new JsonWriter().beginObject()
+            .name("sender_mobile").value(currentUserMobile)
+            .name("receiver_mobile").value(receiverMobile)
+            .name("content").value(content)
+            .name("client_id").value(clientId)
+            .endObject().toString();
+        return sendPostRequestAsync("/send_message", json, BackendClient::readFlatObject)
+            .thenApply(response -> {
+                if (!"Message sent".equals(response.get("status"))) {
+                    throw new UncheckedIOException(new IOException("Unexpected response: " + response));
+                }
+                return response.getOrDefault("id", "");
+            });
+    }
+
+    // Sends queued messages in one request; the server writes them in one batch. Returns a
+    // result per message in the same order: the stored id, or why that message was refused.
+    public List<SendResult> sendMessages(List<Outbox.Entry> entries) throws IOException {
+        JsonWriter json = new JsonWriter().beginObject()
+            .name("sender_mobile").value(currentUserMobile)
+            .name("messages").beginArray();
+        for (Outbox.Entry entry : entries) {
+            json.beginObject()
+                .name("receiver_mobile").value(entry.receiverMobile())
+                .name("content").value(entry.content())
+                .name("client_id").value(entry.clientId())
+                .endObject();
+        }
+        String payload = json.endArray().endObject().toString();
+        return sendPostRequest("/send_messages", payload, reader -> {
+            List<SendResult> results = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("results")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> result = readFlatObject(reader);
+                    results.add(new SendResult(result.getOrDefault("client_id", ""), result.get("id"), result.get("error")));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+            return results;
+        });
+    }
+
+    public record SendResult(String clientId, String id, String error) {
+        public boolean isSent() {
+            return id != null && error == null;
         }
     }
 
-    public boolean sendFile(String receiverMobile, String fileName, String fileDataBase64) {
+    // Registers a chunked upload of file with the server. Nothing is read from disk yet;
+    // pass the result to uploadFile, and again to resume after a failure.
+    public FileUpload createUpload(String receiverMobile, Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        long fileSize = Files.size(file);
+        String json = new JsonWriter().beginObject()
+            .name("sender_mobile").value(currentUserMobile)
+            .name("receiver_mobile").value(receiverMobile)
+            .name("file_name").value(fileName)
+            .name("file_size").value(fileSize)
+            .endObject().toString();
+        Map<String, String> response = sendPostRequest("/uploads", json, BackendClient::readFlatObject);
+        return new FileUpload(file, fileName, fileSize, response.get("upload_id"),
+            Integer.parseInt(response.getOrDefault("chunk_size", "524288")));
+    }
+
+    // Sends the remaining chunks of upload and posts the file message. The file is read one
+    // chunk at a time through a FileChannel, so heap use is a single chunk however big the
+    // file is. Returns false if a chunk fails or the upload is cancelled; calling it again
+    // with the same upload picks up from the offset the server last acknowledged.
+    public boolean uploadFile(FileUpload upload, LongConsumer progress) {
+        return uploadFileAsync(upload, progress).join();
+    }
+
+    public CompletableFuture<Boolean> uploadFileAsync(FileUpload upload, LongConsumer progress) {
+        FileChannel channel;
         try {
-            String escapedFileName = fileName.replace("\"", "\\\"");
-            String escapedFileData = fileDataBase64.replace("\"", "\\\"");
-            String json = String.format("{\"sender_mobile\":\"%s\",\"receiver_mobile\":\"%s\",\"file_name\":\"%s\",\"file_data\":\"%s\"}", 
-                currentUserMobile, receiverMobile, escapedFileName, escapedFileData);
-            String response = sendPostRequest("/send_file", json);
-            return response.contains("File sent");
-        } catch (Exception e) {
-            System.err.println("Send file failed: " + e.getMessage());
-            return false;
+            channel = FileChannel.open(upload.file, StandardOpenOption.READ);
+        } catch (IOException e) {
+            Log.warn("Send file failed: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
         }
+        upload.cancelled = false;
+        CompletableFuture<Long> start = upload.attempts++ > 0
+            // Resuming: the last chunk may or may not have landed before the failure
+            ? sendGetRequestAsync("/uploads/" + upload.uploadId, BackendClient::readFlatObject)
+                .thenApply(response -> Long.parseLong(response.getOrDefault("offset", "0")))
+            : CompletableFuture.completedFuture(upload.offset);
+        ByteBuffer buffer = ByteBuffer.allocate(upload.chunkSize);
+        return start
+            .thenCompose(offset -> sendChunks(upload, channel, buffer, offset, progress))
+            .thenCompose(finished -> !finished ? CompletableFuture.completedFuture(false)
+                : sendPostRequestAsync("/uploads/" + upload.uploadId + "/complete", "{}", BackendClient::readFlatObject)
+                    .thenApply(response -> "File sent".equals(response.get("status"))))
+            .exceptionally(e -> {
+                Log.warn("Send file failed: " + rootMessage(e));
+                return false;
+            })
+            .whenComplete((sent, e) -> {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            });
     }
 
-    public List<Map<String, String>> getMessages() {
+    // Sends the chunk at offset, and the next once the server has acknowledged it. The buffer
+    // is refilled only after the response, so the request body is done with it by then.
+    private CompletableFuture<Boolean> sendChunks(FileUpload upload, FileChannel channel, ByteBuffer buffer,
+                                                  long offset, LongConsumer progress) {
+        if (offset >= upload.fileSize) return CompletableFuture.completedFuture(true);
+        if (upload.cancelled) {
+            upload.offset = offset;
+            return CompletableFuture.completedFuture(false);
+        }
         try {
-            String response = sendGetRequest("/messages/" + currentUserMobile);
-            return parseMessagesArray(response);
-        } catch (Exception e) {
-            System.err.println("Get messages failed: " + e.getMessage());
-            return new ArrayList<>();
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                // keep reading until the chunk is full or the file ends
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/uploads/" + upload.uploadId + "?offset=" + offset))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/octet-stream")
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(buffer.array(), 0, buffer.position()))
+            .build();
+        return sendAsync(request, BackendClient::readFlatObject).thenCompose(response -> {
+            long acknowledged = Long.parseLong(response.getOrDefault("offset", "0"));
+            upload.offset = acknowledged;
+            progress.accept(acknowledged);
+            return sendChunks(upload, channel, buffer, acknowledged, progress);
+        });
+    }
+
+    // Delta sync: returns only messages newer than sinceCursor (null or empty for a full sync)
+    // together with the cursor to pass on the next call. On failure the old cursor is kept.
+    public MessageBatch getMessages(String sinceCursor) {
+        return getMessagesAsync(sinceCursor).join();
+    }
+
+    public CompletableFuture<MessageBatch> getMessagesAsync(String sinceCursor) {
+        String cursor = sinceCursor != null ? sinceCursor : "";
+        return sendGetRequestAsync("/messages/" + currentUserMobile + "/since?cursor="
+                + URLEncoder.encode(cursor, StandardCharsets.UTF_8), BackendClient::readMessageBatch)
+            .thenApply(batch -> batch.cursor.isEmpty() ? new MessageBatch(batch.messages, cursor, batch.hasMore) : batch)
+            .exceptionally(e -> {
+                Log.sampled(Log.Level.WARN, "get-messages", "Get messages failed: " + rootMessage(e));
+                return new MessageBatch(new ArrayList<>(), cursor, false, true);
+            });
     }
     
+    // The page of the conversation with contactMobile just before the message beforeId, or the
+    // newest page when beforeId is empty. A failed fetch comes back empty but not exhausted.
+    public CompletableFuture<HistoryPage> getConversationPageAsync(String contactMobile, String beforeId, int limit) {
+        return sendGetRequestAsync("/conversations/" + conversationId(currentUserMobile, contactMobile)
+                + "/messages?before=" + URLEncoder.encode(beforeId, StandardCharsets.UTF_8) + "&limit=" + limit,
+                BackendClient::readHistoryPage)
+            .exceptionally(e -> {
+                Log.sampled(Log.Level.WARN, "conversation-page", "Get conversation page failed: " + rootMessage(e));
+                return new HistoryPage(new ArrayList<>(), true);
+            });
+    }
+
     public Map<String, String> getUserInfo(String mobile) {
+        return getUserInfoAsync(mobile).join();
+    }
+
+    public CompletableFuture<Map<String, String>> getUserInfoAsync(String mobile) {
+        return sendGetRequestAsync("/user/" + mobile, BackendClient::readFlatObject)
+            .thenApply(response -> {
+                Map<String, String> userInfo = new HashMap<>();
+                userInfo.put("mobile", response.getOrDefault("mobile", ""));
+                userInfo.put("username", response.getOrDefault("username", ""));
+                userInfo.put("about", response.getOrDefault("about", ""));
+                return userInfo;
+            })
+            .exceptionally(e -> {
+                Log.sampled(Log.Level.WARN, "user-info", "Get user info failed: " + rootMessage(e));
+                Map<String, String> fallback = new HashMap<>();
+                fallback.put("mobile", mobile);
+                fallback.put("username", mobile);
+                fallback.put("about", "");
+                return fallback;
+            });
+    }
+
+    // Looks up several users in one request, keyed by mobile. Users that can't be resolved
+    // fall back to their number, as with getUserInfo.
+    public Map<String, Map<String, String>> getUsers(Collection<String> mobiles) {
+        Map<String, Map<String, String>> users = new HashMap<>();
         try {
-            String response = sendGetRequest("/user/" + mobile);
-            Map<String, String> userInfo = new HashMap<>();
-            userInfo.put("mobile", extractValue(response, "mobile"));
-            userInfo.put("username", extractValue(response, "username"));
-            userInfo.put("about", extractValue(response, "about"));
-            return userInfo;
+            JsonWriter json = new JsonWriter().beginObject().name("mobiles").beginArray();
+            for (String mobile : mobiles) {
+                json.value(mobile);
+            }
+            List<Map<String, String>> found = sendPostRequest("/users", json.endArray().endObject().toString(), reader -> {
+                List<Map<String, String>> list = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(readFlatObject(reader));
+                }
+                reader.endArray();
+                return list;
+            });
+            for (Map<String, String> user : found) {
+                users.put(user.getOrDefault("mobile", ""), user);
+            }
         } catch (Exception e) {
-            System.err.println("Get user info failed: " + e.getMessage());
-            Map<String, String> fallback = new HashMap<>();
-            fallback.put("mobile", mobile);
-            fallback.put("username", mobile);
-            fallback.put("about", "");
-            return fallback;
+            Log.sampled(Log.Level.WARN, "get-users", "Get users failed: " + e.getMessage());
+        }
+        for (String mobile : mobiles) {
+            users.computeIfAbsent(mobile, k -> {
+                Map<String, String> fallback = new HashMap<>();
+                fallback.put("mobile", mobile);
+                fallback.put("username", mobile);
+                fallback.put("about", "");
+                return fallback;
+            });
         }
+        return users;
     }
 
-    private String sendPostRequest(String endpoint, String jsonPayload) throws IOException {
-        URL url = URI.create(BASE_URL + endpoint).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
+    // Streams an attachment straight to target; the bytes never sit on the heap
+    public CompletableFuture<Path> downloadFileAsync(String messageId, Path target) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/files/" + messageId))
+            .timeout(requestTimeout)
+            .GET()
+            .build();
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, responseInfo -> responseInfo.statusCode() < 400
+                ? HttpResponse.BodySubscribers.ofFile(target)
+                : HttpResponse.BodySubscribers.replacing(null))
+            .thenApply(response -> {
+                if (response.body() == null) {
+                    throw new UncheckedIOException(new IOException("HTTP Error: " + response.statusCode()));
+                }
+                try {
+                    Metrics.counter("backend.bytesIn").add(Files.size(target));
+                } catch (IOException e) {
+                    // Only the byte count is lost
+                }
+                return response.body();
+            })
+            .whenComplete((path, error) -> recordCall(request, start, error == null));
+    }
 
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = jsonPayload.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
+    private <T> T sendPostRequest(String endpoint, String jsonPayload, ResponseParser<T> parser) throws IOException {
+        return send(postRequest(endpoint, jsonPayload), parser);
+    }
 
-        return readResponse(conn);
+    private <T> CompletableFuture<T> sendPostRequestAsync(String endpoint, String jsonPayload, ResponseParser<T> parser) {
+        return sendAsync(postRequest(endpoint, jsonPayload), parser);
     }
 
-    private String sendGetRequest(String endpoint) throws IOException {
-        URL url = URI.create(BASE_URL + endpoint).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        return readResponse(conn);
+    private <T> CompletableFuture<T> sendGetRequestAsync(String endpoint, ResponseParser<T> parser) {
+        return sendAsync(getRequest(endpoint), parser);
     }
 
-    private String readResponse(HttpURLConnection conn) throws IOException {
-        int responseCode = conn.getResponseCode();
-        InputStream is = (responseCode >= 200 && responseCode < 300) 
-            ? conn.getInputStream() 
-            : conn.getErrorStream();
+    private HttpRequest postRequest(String endpoint, String jsonPayload) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(jsonPayload, StandardCharsets.UTF_8))
+            .build();
+    }
 
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                response.append(line);
-            }
-            
+    private HttpRequest getRequest(String endpoint) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + endpoint))
+            .timeout(requestTimeout)
+            .GET()
+            .build();
+    }
+
+    private <T> T send(HttpRequest request, ResponseParser<T> parser) throws IOException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            T result = readResponse(httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream()), parser);
+            succeeded = true;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted: " + request.uri());
+        } finally {
+            recordCall(request, start, succeeded);
+        }
+    }
+
+    private <T> CompletableFuture<T> sendAsync(HttpRequest request, ResponseParser<T> parser) {
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+            .thenApply(response -> {
+                try {
+                    return readResponse(response, parser);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })
+            .whenComplete((result, error) -> recordCall(request, start, error == null));
+    }
+
+    // Waits for an async call from a blocking one, rethrowing the IOException it failed with
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause() : e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause);
+        }
+    }
+
+    // Successful bodies are parsed straight off the response stream; only error bodies
+    // are read into a String, for the exception message. Closing the stream hands the
+    // connection back to the pool. Parse time includes waiting for the body to arrive,
+    // since the parser is what pulls it off the wire.
+    private <T> T readResponse(HttpResponse<InputStream> response, ResponseParser<T> parser) throws IOException {
+        try (InputStream body = new CountingInputStream(response.body())) {
+            int responseCode = response.statusCode();
             if (responseCode >= 400) {
-                throw new IOException("HTTP Error: " + responseCode + " - " + response.toString());
+                String error = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                throw new HttpStatusException(responseCode, error);
             }
-            
-            return response.toString();
-        }
-    }
-
-    private String extractValue(String json, String key) {
-        String searchKey = "\"" + key + "\":";
-        int start = json.indexOf(searchKey);
-        if (start == -1) return "";
-        
-        start += searchKey.length();
-        while (start < json.length() && (json.charAt(start) == ' ' || json.charAt(start) == '"')) {
-            start++;
-        }
-        
-        int end = start;
-        boolean inQuotes = false;
-        if (start > 0 && json.charAt(start - 1) == '"') {
-            inQuotes = true;
-            while (end < json.length() && json.charAt(end) != '"') {
-                end++;
+            long parseStart = System.nanoTime();
+            T result = parser.parse(new JsonReader(body));
+            Metrics.histogram("backend.parse").recordSince(parseStart);
+            return result;
+        }
+    }
+
+    // Each call is timed under its method and first path segment, e.g. backend.messages.get,
+    // so calls differing only in ids and parameters share a histogram
+    private static void recordCall(HttpRequest request, long startNanos, boolean succeeded) {
+        String path = request.uri().getPath();
+        int end = path.indexOf('/', 1);
+        String operation = "backend." + path.substring(1, end < 0 ? path.length() : end) + "."
+            + request.method().toLowerCase(Locale.ROOT);
+        Metrics.histogram(operation).recordSince(startNanos);
+        if (!succeeded) {
+            Metrics.counter(operation + ".errors").increment();
+        }
+        long sent = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        if (sent > 0) {
+            Metrics.counter("backend.bytesOut").add(sent);
+        }
+    }
+
+    // Adds the bytes read to backend.bytesIn when closed
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Metrics.counter("backend.bytesIn").add(count);
+            count = 0;
+            super.close();
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getMessage();
+    }
+
+    private interface ResponseParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    // Reads an object of scalar fields; nested values are skipped
+    private static Map<String, String> readFlatObject(JsonReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonReader.Token token = reader.peek();
+            if (token == JsonReader.Token.STRING || token == JsonReader.Token.LITERAL) {
+                String value = reader.nextString();
+                if (value != null) fields.put(name, value);
+            } else {
+                reader.skipValue();
             }
-        } else {
-            while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
-                end++;
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static List<ChatMessage> readMessageArray(JsonReader reader) throws IOException {
+        List<ChatMessage> messages = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            messages.add(ChatMessage.read(reader));
+        }
+        reader.endArray();
+        return messages;
+    }
+
+    private static MessageBatch readMessageBatch(JsonReader reader) throws IOException {
+        List<ChatMessage> messages = new ArrayList<>();
+        String cursor = "";
+        boolean hasMore = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "cursor" -> {
+                    String value = reader.nextString();
+                    cursor = value != null ? value : "";
+                }
+                case "messages" -> messages = readMessageArray(reader);
+                case "has_more" -> hasMore = reader.nextBoolean();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new MessageBatch(messages, cursor, hasMore);
+    }
+
+    // Same as conversation_id on the server: both numbers, sorted, joined with '_'
+    static String conversationId(String mobileA, String mobileB) {
+        return mobileA.compareTo(mobileB) <= 0 ? mobileA + "_" + mobileB : mobileB + "_" + mobileA;
+    }
+
+    private static HistoryPage readHistoryPage(JsonReader reader) throws IOException {
+        List<ChatMessage> messages = new ArrayList<>();
+        boolean hasMore = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "messages" -> messages = readMessageArray(reader);
+                case "has_more" -> hasMore = reader.nextBoolean();
+                default -> reader.skipValue();
             }
         }
-        
-        return json.substring(start, end).trim();
-    }
-
-    private List<Map<String, String>> parseMessagesArray(String json) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        if (!json.startsWith("[")) return messages;
-        
-        int depth = 0;
-        int objStart = -1;
-        
-        for (int i = 0; i < json.length(); i++) {
-            char c = json.charAt(i);
-            if (c == '{') {
-                if (depth == 0) objStart = i;
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0 && objStart != -1) {
-                    String objJson = json.substring(objStart, i + 1);
-                    Map<String, String> msg = new HashMap<>();
-                    msg.put("id", extractValue(objJson, "id"));
-                    msg.put("sender_mobile", extractValue(objJson, "sender_mobile"));
-                    msg.put("receiver_mobile", extractValue(objJson, "receiver_mobile"));
-                    msg.put("content", extractValue(objJson, "content"));
-                    msg.put("timestamp", extractValue(objJson, "timestamp"));
-                    msg.put("is_file", extractValue(objJson, "is_file"));
-                    msg.put("file_name", extractValue(objJson, "file_name"));
-                    msg.put("file_data", extractValue(objJson, "file_data"));
-                    messages.add(msg);
+        reader.endObject();
+        return new HistoryPage(messages, hasMore);
+    }
+
+    // Opens /ws/{mobile} and hands every pushed message to onMessage. The socket reconnects
+    // on its own with exponential backoff; onConnected runs after each (re)connect so the
+    // caller can delta-sync whatever was missed while disconnected.
+    public void connectPush(Consumer<ChatMessage> onMessage, Runnable onConnected) {
+        this.pushHandler = onMessage;
+        this.pushConnectedHandler = onConnected;
+        this.pushEnabled = true;
+        openPushSocket();
+    }
+
+    public void disconnectPush() {
+        pushEnabled = false;
+        WebSocket socket = pushSocket;
+        pushSocket = null;
+        if (socket != null) {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "bye");
+        }
+    }
+
+    public boolean isPushConnected() {
+        return pushSocket != null;
+    }
+
+    private void openPushSocket() {
+        if (!pushEnabled) return;
+        URI uri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/" + currentUserMobile);
+        httpClient.newWebSocketBuilder()
+            .buildAsync(uri, new PushListener())
+            .whenComplete((socket, error) -> {
+                if (error != null) {
+                    Log.sampled(Log.Level.WARN, "push-connect", "Push connect failed: " + error.getMessage());
+                    schedulePushReconnect();
+                }
+            });
+    }
+
+    private void schedulePushReconnect() {
+        pushSocket = null;
+        if (!pushEnabled) return;
+        long delay = pushBackoffMillis;
+        pushBackoffMillis = Math.min(pushBackoffMillis * 2, MAX_PUSH_BACKOFF_MILLIS);
+        pushScheduler.schedule(this::openPushSocket, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private class PushListener implements WebSocket.Listener {
+        private final StringBuilder pending = new StringBuilder();
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            pushSocket = webSocket;
+            pushBackoffMillis = MIN_PUSH_BACKOFF_MILLIS;
+            pushConnectedHandler.run();
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            pending.append(data);
+            if (last) {
+                String json = pending.toString();
+                pending.setLength(0);
+                Metrics.counter("push.messages").increment();
+                try {
+                    pushHandler.accept(ChatMessage.read(new JsonReader(new StringReader(json))));
+                } catch (Exception e) {
+                    Log.sampled(Log.Level.WARN, "push-message", "Bad push message: " + e.getMessage());
                 }
             }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            schedulePushReconnect();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            Log.sampled(Log.Level.WARN, "push-lost", "Push connection lost: " + error.getMessage());
+            schedulePushReconnect();
+        }
+    }
+
+    public static class FileUpload {
+        public final Path file;
+        public final String fileName;
+        public final long fileSize;
+        private final String uploadId;
+        private final int chunkSize;
+        private volatile long offset;
+        private volatile boolean cancelled;
+        private int attempts;
+
+        FileUpload(Path file, String fileName, long fileSize, String uploadId, int chunkSize) {
+            this.file = file;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.uploadId = uploadId;
+            this.chunkSize = chunkSize;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        // Stops uploadFile before its next chunk; the upload can still be resumed afterwards
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    // A response with an error status, kept so callers can tell what the server objected to
+    public static class HttpStatusException extends IOException {
+        public final int statusCode;
+
+        HttpStatusException(int statusCode, String body) {
+            super("HTTP Error: " + statusCode + " - " + body);
+            this.statusCode = statusCode;
+        }
+    }
+
+    public static class HistoryPage {
+        public final List<ChatMessage> messages; // Oldest first
+        public final boolean hasMore;
+
+        HistoryPage(List<ChatMessage> messages, boolean hasMore) {
+            this.messages = messages;
+            this.hasMore = hasMore;
+        }
+    }
+
+    public static class MessageBatch {
+        public final List<ChatMessage> messages;
+        public final String cursor;
+        public final boolean hasMore; // The server capped the batch; ask again from cursor
+        public final boolean failed; // The request failed; messages is empty and cursor unchanged
+
+        MessageBatch(List<ChatMessage> messages, String cursor, boolean hasMore) {
+            this(messages, cursor, hasMore, false);
+        }
+
+        MessageBatch(List<ChatMessage> messages, String cursor, boolean hasMore, boolean failed) {
+            this.messages = messages;
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+            this.failed = failed;
         }
-        
-        return messages;
     }
 
     public String getCurrentUserMobile() {
@@ -6,10 +6,20 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatApp extends JFrame {
 
@@ -17,19 +27,42 @@ public class ChatApp extends JFrame {
     private JPanel contactListPanel;
     private DefaultListModel<Contact> contacts = new DefaultListModel<>();
     private JList<Contact> contactList;
-    private Map<String, ChatPanel> chatPanels = new HashMap<>();
+    // Open conversations; inactive ones are evicted and rebuilt from the local store on demand
+    private final ConversationCache<ChatPanel> chatPanels = new ConversationCache<>(
+        Integer.getInteger("chatapp.cache.conversations", 20),
+        Long.getLong("chatapp.cache.messages", 20_000),
+        ChatPanel::getMessageCount,
+        this::evictConversation);
     private ChatPanel currentChatPanel;
     private JTextField searchField;
     private static final Color WHATSAPP_GREEN = new Color(37, 211, 102);
     private static final Color TELEGRAM_BLUE = new Color(0, 136, 204);
     private static final Color BG_COLOR = new Color(230, 221, 212);
     private static final Color SIDEBAR_BG = Color.WHITE;
+    private static final long MAX_FILE_SIZE = 100L * 1024 * 1024; // Matches MAX_UPLOAD_SIZE on the server
     private static final String[] EMOJIS = {"😊", "😂", "❤️", "👍", "🎉", "🔥", "😍", "😢", "🤔", "👋", "✅", "📷", "🎵", "⭐", "💯"};
-    private Map<String, List<Message>> messageHistory = new HashMap<>();
     private BackendClient backendClient;
-    private Map<String, String> contactMobileMap = new HashMap<>(); // Maps contact name to mobile number
-    private javax.swing.Timer messageRefreshTimer;
-    private Set<String> loadedMessageIds = new HashSet<>();
+    private final ContactIndex contactIndex = new ContactIndex(); // Contact name <-> mobile number, plus search
+    private final Map<String, Contact> contactsByMobile = new HashMap<>();
+    private javax.swing.Timer searchDebounce;
+    private final AtomicInteger searchGeneration = new AtomicInteger(); // Drops results of superseded queries
+    private final AdaptiveSyncScheduler syncScheduler = new AdaptiveSyncScheduler(this::pollIfDisconnected,
+        Long.getLong("chatapp.sync.activeMillis", 3000),
+        Long.getLong("chatapp.sync.maxMillis", 60_000),
+        Long.getLong("chatapp.sync.idleAfterMillis", 60_000));
+    private final MessageIdSet loadedMessageIds = new MessageIdSet();
+    private volatile String syncCursor; // Newest server timestamp seen, for delta sync
+    private ConversationState conversations; // Updated by sync and push threads, drawn on the EDT
+    private final Queue<ConversationState.Update> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean displayScheduled = new AtomicBoolean();
+    private int listedConversations; // How many of the state's conversations the sidebar has caught up with
+    private final TaskScheduler tasks = new TaskScheduler(); // All background work except HTTP I/O itself
+    private volatile LocalMessageStore localStore; // null until opened, or if the disk store is unusable
+    private volatile Outbox outbox; // null until the local store has been tried
+    private volatile AttachmentStore attachments; // null until opened, or if its directory is unusable
+    private final Map<String, Message> pendingByClientId = new HashMap<>(); // Unacknowledged sends on screen
+    private long startupStartNanos;
+    private volatile long startupMillis = -1; // Login to the first history on screen
 
     public ChatApp() {
         // Show login dialog first
@@ -41,11 +74,15 @@ public class ChatApp extends JFrame {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         
-        // Load existing messages immediately after login
-        loadMessagesFromBackend();
+        // Show history from disk immediately after login, then sync the delta from the backend
+        startupStartNanos = System.nanoTime();
+        conversations = new ConversationState(backendClient.getCurrentUserMobile());
+        conversations.subscribe(this::queueForDisplay);
+        registerMetrics();
+        loadLocalHistory();
         
-        // Start message refresh timer (check for new messages every 3 seconds)
-        startMessageRefreshTimer();
+        // Poll for new messages while the push socket is down, less often when nobody is looking
+        startSyncScheduler();
 
         // Header bar
         JPanel headerBar = new JPanel(new BorderLayout());
@@ -101,10 +138,13 @@ public class ChatApp extends JFrame {
                 }
             }
         });
-        searchField.addKeyListener(new KeyAdapter() {
-            public void keyReleased(KeyEvent e) {
-                filterContacts(searchField.getText());
-            }
+        // Wait for a pause in typing, then query the index off the EDT
+        searchDebounce = new javax.swing.Timer(150, e -> filterContacts(searchField.getText()));
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { searchDebounce.restart(); }
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { searchDebounce.restart(); }
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { searchDebounce.restart(); }
         });
         contactListPanel.add(searchField, BorderLayout.NORTH);
 
@@ -141,15 +181,9 @@ public class ChatApp extends JFrame {
     }
 
     private void showChat(String contact) {
-        ChatPanel panel = chatPanels.computeIfAbsent(contact, k -> new ChatPanel(k, this));
-        
-        // Load message history
-        List<Message> history = messageHistory.get(contact);
-        if (history != null && panel.getMessageCount() == 0) {
-            for (Message msg : history) {
-                panel.addMessage(msg.type, msg.time, msg.text, msg.delivered, msg.isFile, msg.fileName, msg.fileData);
-            }
-        }
+        ChatPanel panel = panelFor(contact);
+        chatPanels.pin(contact);
+        trimConversations();
         
         splitPane.setRightComponent(panel);
         currentChatPanel = panel;
@@ -157,43 +191,136 @@ public class ChatApp extends JFrame {
         repaint();
     }
 
+    // Returns the contact's panel. A new one starts with the newest page of its stored
+    // history, so opening a chat costs the same however long the conversation is.
+    private ChatPanel panelFor(String contact) {
+        ChatPanel panel = chatPanels.get(contact);
+        if (panel != null) return panel;
+        panel = new ChatPanel(contact, this);
+        chatPanels.put(contact, panel);
+        panel.loadOlder();
+        String mobile = contactIndex.mobileFor(contact);
+        Outbox queue = outbox;
+        if (queue != null && mobile != null) {
+            queue.pendingFor(mobile).forEach(this::showPending);
+        }
+        return panel;
+    }
+
+    // Only the local store can bring an evicted conversation back, so without one nothing is evicted
+    private void trimConversations() {
+        if (localStore != null) {
+            chatPanels.trim();
+        }
+        // Only the EDT may read these, so their gauges are set here rather than polled
+        Metrics.gauge("conversations.open").set(chatPanels.size());
+        Metrics.gauge("messages.onScreen").set(loadedMessageIds.size());
+    }
+
+    private void evictConversation(String contact, ChatPanel panel) {
+        tasks.cancelAll(panel);
+        panel.forEachMessageId(id -> {
+            loadedMessageIds.remove(id);
+            pendingByClientId.remove(id); // Shown again from the outbox if the panel comes back
+        });
+        Log.info("Evicted conversation " + contact + " (" + panel.getMessageCount() + " messages), " + chatPanels);
+    }
+
+    // Gauges for state that is safe to read from the reporting thread
+    private void registerMetrics() {
+        for (TaskScheduler.Category category : TaskScheduler.Category.values()) {
+            String name = "tasks." + category.name().toLowerCase(Locale.ROOT);
+            Metrics.gauge(name + ".queued", () -> tasks.queueDepth(category));
+            Metrics.gauge(name + ".running", () -> tasks.running(category));
+        }
+        Metrics.gauge("sync.delayMillis", syncScheduler::getCurrentDelayMillis);
+        Metrics.gauge("sync.perMinute", syncScheduler::getSyncsPerMinute);
+        Metrics.gauge("conversations.known", () -> conversations.snapshot().conversations().size());
+        Metrics.gauge("outbox.pending", () -> {
+            Outbox queue = outbox;
+            return queue != null ? queue.pending().size() : 0;
+        });
+        Metrics.gauge("attachments.bytes", () -> {
+            AttachmentStore store = attachments;
+            return store != null ? store.getTotalBytes() : 0;
+        });
+    }
+
+    // Poll interval, sync request rate and failure counts
+    public AdaptiveSyncScheduler getSyncScheduler() {
+        return syncScheduler;
+    }
+
+    // Queue depth, running and completed counts per task category
+    public TaskScheduler getTaskScheduler() {
+        return tasks;
+    }
+
+    // Hit, miss and eviction counts for the open-conversation cache
+    public ConversationCache<?> getConversationCache() {
+        return chatPanels;
+    }
+
+    // Shows only the contacts matching searchText; an empty search shows them all again
     private void filterContacts(String searchText) {
-        if (searchText.equals("Search...") || searchText.isEmpty()) {
-            contactList.clearSelection();
+        int generation = searchGeneration.incrementAndGet();
+        if (searchText.equals("Search...") || searchText.isBlank()) {
+            showContactList(contacts);
             return;
         }
-        // Simple filter - could be enhanced
-        String lower = searchText.toLowerCase();
-        for (int i = 0; i < contacts.size(); i++) {
-            if (contacts.get(i).name.toLowerCase().contains(lower)) {
-                contactList.setSelectedIndex(i);
-                contactList.ensureIndexIsVisible(i);
-                break;
-            }
+        tasks.submit(TaskScheduler.Category.SEARCH, () -> contactIndex.search(searchText)).thenAccept(mobiles ->
+            SwingUtilities.invokeLater(() -> {
+                if (generation != searchGeneration.get()) return;
+                DefaultListModel<Contact> filtered = new DefaultListModel<>();
+                for (String mobile : mobiles) {
+                    Contact contact = contactsByMobile.get(mobile);
+                    if (contact != null) filtered.addElement(contact);
+                }
+                showContactList(filtered);
+            }));
+    }
+
+    private void showContactList(ListModel<Contact> model) {
+        if (contactList.getModel() == model) return;
+        Contact selected = contactList.getSelectedValue();
+        contactList.setModel(model);
+        if (selected != null) {
+            contactList.setSelectedValue(selected, true);
         }
     }
 
-    private void saveMessage(String contact, Message msg) {
-        messageHistory.computeIfAbsent(contact, k -> new ArrayList<>()).add(msg);
+    private void addContact(Contact contact) {
+        contacts.addElement(contact);
+        contactsByMobile.put(contact.mobile, contact);
+        contactIndex.put(contact.name, contact.mobile);
+        if (contactList != null && contactList.getModel() != contacts) {
+            filterContacts(searchField.getText()); // Let a new contact show up in the filtered list
+        }
     }
 
-    private static class Message {
+    static class Message {
         String type;
         String time;
         String text;
         boolean delivered;
+        boolean failed; // Rejected by the server; never delivered
         boolean isFile;
         String fileName;
-        String fileData;
+        String id; // Server message id, or the client id while the send is pending; attachments are downloaded by it
+        long fileSize;
+        String fileSha256; // Key into the AttachmentStore, when the server sent one
+        Dimension rowSize; // Cached by MessageRenderer
+        MessageBubble.BubbleLayout layout; // Cached by MessageBubble
 
-        Message(String type, String time, String text, boolean delivered, boolean isFile, String fileName, String fileData) {
+        Message(String type, String time, String text, boolean delivered, boolean isFile, String fileName, String id, long fileSize) {
             this.type = type;
             this.time = time;
             this.text = text;
             this.delivered = delivered;
             this.isFile = isFile;
             this.fileName = fileName;
-            this.fileData = fileData;
+            this.id = id;
+            this.fileSize = fileSize;
         }
     }
 
@@ -274,14 +401,20 @@ public class ChatApp extends JFrame {
     }
 
     private static class ChatPanel extends JPanel {
-        private JPanel messagePanel;
+        private static final int HISTORY_PAGE_SIZE = 50;
+        private DefaultListModel<Message> messageModel = new DefaultListModel<>();
+        private JList<Message> messageList;
         private JTextField inputField;
         private JButton sendButton;
         private JScrollPane scrollPane;
         private String contactName;
         private ChatApp parent;
-        private int messageCount = 0;
         private JLabel contactLabel;
+        // Older history is paged in as the user scrolls up: from the local store first, then
+        // from the server once the store has nothing older
+        private int storedFrom = -1; // Store index of the oldest stored message shown; -1 before the first page
+        private boolean olderOnServer = true;
+        private boolean loadingOlder;
 
         public ChatPanel(String contactName, ChatApp parent) {
             this.contactName = contactName;
@@ -298,9 +431,9 @@ public class ChatApp extends JFrame {
             contactLabel.setFont(new Font("SansSerif", Font.BOLD, 16));
             chatHeader.add(contactLabel, BorderLayout.WEST);
             
-            // Fetch and update username from backend
-            new Thread(() -> {
-                String mobile = parent.contactMobileMap.get(contactName);
+            // Fetch and update username from backend; cancelled if the panel is evicted first
+            parent.tasks.run(TaskScheduler.Category.CONTACTS, this, () -> {
+                String mobile = parent.contactIndex.mobileFor(contactName);
                 if (mobile != null) {
                     Map<String, String> userInfo = parent.backendClient.getUserInfo(mobile);
                     String username = userInfo.get("username");
@@ -308,7 +441,7 @@ public class ChatApp extends JFrame {
                         SwingUtilities.invokeLater(() -> contactLabel.setText(username));
                     }
                 }
-            }).start();
+            });
             
             JLabel statusLabel = new JLabel("online");
             statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 12));
@@ -317,19 +450,52 @@ public class ChatApp extends JFrame {
             
             add(chatHeader, BorderLayout.NORTH);
 
-            // Message panel with background
-            messagePanel = new JPanel();
-            messagePanel.setLayout(new BoxLayout(messagePanel, BoxLayout.Y_AXIS));
-            messagePanel.setBackground(BG_COLOR);
-            messagePanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+            // Message list with background. Rows are painted by a single renderer bubble,
+            // so only visible messages cost anything regardless of history length.
+            messageList = new JList<>(messageModel);
+            messageList.setCellRenderer(new MessageRenderer());
+            messageList.setBackground(BG_COLOR);
+            messageList.setBorder(new EmptyBorder(10, 10, 10, 10));
+            messageList.setFocusable(false);
+            messageList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            MouseAdapter fileClickHandler = new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    Message msg = fileMessageAt(e.getPoint());
+                    if (msg != null) {
+                        MessageBubble.downloadFile(ChatPanel.this, msg, parent);
+                    }
+                }
+
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    messageList.setCursor(fileMessageAt(e.getPoint()) != null
+                        ? Cursor.getPredefinedCursor(Cursor.HAND_CURSOR)
+                        : Cursor.getDefaultCursor());
+                }
+            };
+            messageList.addMouseListener(fileClickHandler);
+            messageList.addMouseMotionListener(fileClickHandler);
             
-            scrollPane = new JScrollPane(messagePanel);
+            scrollPane = new JScrollPane(messageList);
             scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
             scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
             scrollPane.setBorder(null);
             scrollPane.getViewport().setBackground(BG_COLOR);
             add(scrollPane, BorderLayout.CENTER);
 
+            // Nearing the top, or history too short to scroll, loads the previous page
+            JScrollBar vertical = scrollPane.getVerticalScrollBar();
+            vertical.addAdjustmentListener(e -> {
+                if (!loadingOlder && isShowing() && vertical.getValue() <= vertical.getVisibleAmount() / 4) {
+                    loadingOlder = true;
+                    SwingUtilities.invokeLater(() -> {
+                        loadingOlder = false;
+                        loadOlder();
+                    });
+                }
+            });
+
             // Input panel
             JPanel inputPanel = new JPanel(new BorderLayout(5, 0));
             inputPanel.setBackground(Color.WHITE);
@@ -357,23 +523,18 @@ public class ChatApp extends JFrame {
                         // Clear input field immediately for better UX
                         inputField.setText("");
                         
-                        // Send message to backend - don't add to UI yet to prevent duplicates
-                        String receiverMobile = parent.contactMobileMap.get(contactName);
+                        // Shown at once as pending; the outbox sends it and marks it delivered
+                        String receiverMobile = parent.contactIndex.mobileFor(contactName);
                         if (receiverMobile != null && !receiverMobile.isEmpty()) {
-                            new Thread(() -> {
-                                boolean success = parent.backendClient.sendMessage(receiverMobile, text);
-                                if (!success) {
-                                    SwingUtilities.invokeLater(() -> {
-                                        JOptionPane.showMessageDialog(ChatPanel.this, 
-                                            "Failed to send message to backend!", 
-                                            "Error", JOptionPane.ERROR_MESSAGE);
-                                    });
-                                } else {
-                                    System.out.println("Message sent successfully to " + receiverMobile);
-                                    // Trigger immediate refresh to show the message from backend
-                                    parent.loadMessagesFromBackend();
-                                }
-                            }).start();
+                            Outbox outbox = parent.outbox;
+                            if (outbox == null) {
+                                inputField.setText(text);
+                                JOptionPane.showMessageDialog(ChatPanel.this, 
+                                    "Still loading your messages, please try again in a moment.", 
+                                    "Warning", JOptionPane.WARNING_MESSAGE);
+                                return;
+                            }
+                            parent.showPending(outbox.enqueue(receiverMobile, text));
                         } else {
                             JOptionPane.showMessageDialog(ChatPanel.this, 
                                 "No mobile number found for " + contactName + ".\nPlease add their mobile number.", 
@@ -414,33 +575,108 @@ public class ChatApp extends JFrame {
             add(inputPanel, BorderLayout.SOUTH);
         }
 
-        public void addMessage(String type, String time, String text, boolean delivered, boolean isFile, String fileName, String fileData) {
-            MessageBubble bubble = new MessageBubble(type, time, text, delivered, isFile, fileName, fileData);
-            
-            JPanel wrapper = new JPanel();
-            wrapper.setLayout(new BoxLayout(wrapper, BoxLayout.X_AXIS));
-            wrapper.setOpaque(false);
-            
-            if ("sent".equals(type)) {
-                wrapper.add(Box.createHorizontalGlue());
-                wrapper.add(bubble);
-            } else {
-                wrapper.add(bubble);
-                wrapper.add(Box.createHorizontalGlue());
-            }
-            
-            messagePanel.add(wrapper);
-            messagePanel.add(Box.createVerticalStrut(8));
-            messagePanel.revalidate();
-            messagePanel.repaint();
-            messageCount++;
+        public void addMessage(String type, String time, String text, boolean delivered, boolean isFile, String fileName, String id, long fileSize) {
+            addMessages(List.of(new Message(type, time, text, delivered, isFile, fileName, id, fileSize)));
+        }
+
+        // One model event, one layout pass and one scroll for the whole batch
+        public void addMessages(List<Message> messages) {
+            if (messages.isEmpty()) return;
+            messageModel.addAll(messages);
             
             // Auto-scroll to bottom when new message is added
             scrollToBottom();
         }
 
         public int getMessageCount() {
-            return messageCount;
+            return messageModel.size();
+        }
+
+        // Older pages come from the local store until it runs out, then from the server. The
+        // store is read in a STORAGE task since a compaction or fsync can hold its lock.
+        void loadOlder() {
+            String mobile = parent.contactIndex.mobileFor(contactName);
+            if (mobile == null || loadingOlder) return;
+            loadingOlder = true;
+            loadStoredPage(mobile).thenAccept(shown -> SwingUtilities.invokeLater(() -> {
+                if (shown || !olderOnServer) {
+                    loadingOlder = false;
+                    return;
+                }
+                parent.backendClient.getConversationPageAsync(mobile, oldestDeliveredId(), HISTORY_PAGE_SIZE)
+                    .thenAccept(page -> SwingUtilities.invokeLater(() -> {
+                        loadingOlder = false;
+                        olderOnServer = page.hasMore;
+                        prependMessages(parent.unseenMessages(page.messages));
+                    }));
+            }));
+        }
+
+        // Shows the next older page from the local store; completes false once it has nothing older
+        private CompletableFuture<Boolean> loadStoredPage(String mobile) {
+            LocalMessageStore store = parent.localStore;
+            if (store == null || storedFrom == 0) return CompletableFuture.completedFuture(false);
+            int end = storedFrom;
+            return parent.tasks.submit(TaskScheduler.Category.STORAGE, this, () -> {
+                int to = end < 0 ? store.conversationSize(mobile) : end;
+                int from = Math.max(0, to - HISTORY_PAGE_SIZE);
+                return new StoredPage(from, store.readConversation(mobile, from, to));
+            }).thenApply(page -> {
+                SwingUtilities.invokeLater(() -> {
+                    storedFrom = page.from();
+                    prependMessages(parent.unseenMessages(page.messages()));
+                });
+                return !page.messages().isEmpty();
+            });
+        }
+
+        private record StoredPage(int from, List<ChatMessage> messages) {}
+
+        // Adds older messages above the current ones without moving what's on screen
+        private void prependMessages(List<Message> older) {
+            if (older.isEmpty()) return;
+            if (messageModel.isEmpty()) {
+                addMessages(older);
+                return;
+            }
+            JScrollBar vertical = scrollPane.getVerticalScrollBar();
+            int fromBottom = vertical.getMaximum() - vertical.getValue();
+            messageModel.addAll(0, older);
+            scrollPane.validate();
+            vertical.setValue(vertical.getMaximum() - fromBottom);
+        }
+
+        // Server pages are anchored on a message it knows, so pending sends don't count
+        private String oldestDeliveredId() {
+            for (int i = 0; i < messageModel.size(); i++) {
+                Message msg = messageModel.get(i);
+                if (msg.delivered) return msg.id;
+            }
+            return "";
+        }
+
+        // Repaints a message whose state changed, such as a pending send being acknowledged
+        void messageChanged(Message message) {
+            message.layout = null;
+            message.rowSize = null;
+            int index = messageModel.indexOf(message);
+            if (index >= 0) {
+                messageModel.set(index, message);
+            }
+        }
+
+        void forEachMessageId(java.util.function.Consumer<String> action) {
+            for (int i = 0; i < messageModel.size(); i++) {
+                String id = messageModel.get(i).id;
+                if (id != null) action.accept(id);
+            }
+        }
+
+        private Message fileMessageAt(Point point) {
+            int index = messageList.locationToIndex(point);
+            if (index < 0 || !messageList.getCellBounds(index, index).contains(point)) return null;
+            Message msg = messageModel.get(index);
+            return msg.isFile ? msg : null;
         }
 
         private void showEmojiPicker() {
@@ -476,45 +712,36 @@ public class ChatApp extends JFrame {
                 String fileName = selectedFile.getName();
                 long fileSize = selectedFile.length();
                 
-                // Check file size limit (5MB)
-                if (fileSize > 5 * 1024 * 1024) {
+                // Uploads stream in chunks, so the limit is the server's rather than our heap's
+                if (fileSize > MAX_FILE_SIZE) {
                     JOptionPane.showMessageDialog(this, 
-                        "File too large! Maximum size is 5MB.", 
+                        "File too large! Maximum size is " + formatFileSize(MAX_FILE_SIZE) + ".", 
                         "Error", JOptionPane.ERROR_MESSAGE);
                     return;
                 }
                 
                 // Send file to backend
-                String receiverMobile = parent.contactMobileMap.get(contactName);
+                String receiverMobile = parent.contactIndex.mobileFor(contactName);
                 if (receiverMobile != null && !receiverMobile.isEmpty()) {
-                    new Thread(() -> {
+                    parent.tasks.submit(TaskScheduler.Category.UPLOAD, () -> {
                         try {
-                            // Read file and convert to Base64
-                            byte[] fileBytes = java.nio.file.Files.readAllBytes(selectedFile.toPath());
-                            String base64Data = java.util.Base64.getEncoder().encodeToString(fileBytes);
-                            
-                            boolean success = parent.backendClient.sendFile(receiverMobile, fileName, base64Data);
-                            
-                            if (!success) {
-                                SwingUtilities.invokeLater(() -> {
-                                    JOptionPane.showMessageDialog(ChatPanel.this, 
-                                        "Failed to send file!", 
-                                        "Error", JOptionPane.ERROR_MESSAGE);
-                                });
-                            } else {
-                                System.out.println("File sent successfully: " + fileName);
-                                // Trigger immediate refresh to show the file message
-                                parent.loadMessagesFromBackend();
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Error reading file: " + e.getMessage());
+                            return parent.backendClient.createUpload(receiverMobile, selectedFile.toPath());
+                        } catch (java.io.IOException e) {
+                            throw new java.io.UncheckedIOException(e);
+                        }
+                    }).whenComplete((upload, e) -> {
+                        if (e != null) {
+                            String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                            Log.warn("Error sending file: " + reason);
                             SwingUtilities.invokeLater(() -> {
                                 JOptionPane.showMessageDialog(ChatPanel.this, 
-                                    "Error reading file: " + e.getMessage(), 
+                                    "Error sending file: " + reason, 
                                     "Error", JOptionPane.ERROR_MESSAGE);
                             });
+                            return;
                         }
-                    }).start();
+                        SwingUtilities.invokeLater(() -> runUpload(upload));
+                    });
                 } else {
                     JOptionPane.showMessageDialog(this, 
                         "No mobile number found for " + contactName + ".\nPlease add their mobile number.", 
@@ -523,7 +750,41 @@ public class ChatApp extends JFrame {
             }
         }
 
-        private String formatFileSize(long size) {
+        // Shows progress while upload runs off the EDT. Cancelling or a failed chunk leaves the
+        // upload resumable, so the user is offered to carry on from the last acknowledged chunk.
+        private void runUpload(BackendClient.FileUpload upload) {
+            ProgressMonitor monitor = new ProgressMonitor(this, "Sending " + upload.fileName, null, 0, 1000);
+            monitor.setMillisToDecideToPopup(200);
+            monitor.setProgress((int) (upload.getOffset() * 1000 / Math.max(upload.fileSize, 1)));
+            parent.tasks.submit(TaskScheduler.Category.UPLOAD, () -> parent.backendClient.uploadFile(upload, sent ->
+                SwingUtilities.invokeLater(() -> {
+                    if (monitor.isCanceled()) {
+                        upload.cancel();
+                        return;
+                    }
+                    monitor.setProgress((int) (sent * 1000 / Math.max(upload.fileSize, 1)));
+                    monitor.setNote(formatFileSize(sent) + " of " + formatFileSize(upload.fileSize));
+                })
+            )).thenAccept(success -> SwingUtilities.invokeLater(() -> {
+                monitor.close();
+                if (success) {
+                    Log.info("File sent successfully: " + upload.fileName);
+                    parent.keepAttachment(upload.file);
+                    // Trigger immediate refresh to show the file message
+                    parent.loadMessagesFromBackend();
+                    return;
+                }
+                int choice = JOptionPane.showConfirmDialog(ChatPanel.this, 
+                    "Sending " + upload.fileName + " stopped at " + formatFileSize(upload.getOffset())
+                        + " of " + formatFileSize(upload.fileSize) + ".\nResume?", 
+                    "Upload interrupted", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (choice == JOptionPane.YES_OPTION) {
+                    runUpload(upload);
+                }
+            }));
+        }
+
+        private static String formatFileSize(long size) {
             if (size < 1024) return size + " B";
             else if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
             else return String.format("%.1f MB", size / (1024.0 * 1024.0));
@@ -546,172 +807,236 @@ public class ChatApp extends JFrame {
         }
     }
 
-    private static class MessageBubble extends JPanel {
+    // Paints one row of a ChatPanel's message list. The list owns a single renderer, so a
+    // row costs a model entry rather than a component tree.
+    private static class MessageRenderer extends JPanel implements ListCellRenderer<Message> {
+        private final MessageBubble bubble = new MessageBubble();
+
+        public MessageRenderer() {
+            setLayout(new BorderLayout());
+            setOpaque(false);
+            setBorder(new EmptyBorder(0, 0, 8, 0));
+        }
+
+        public Component getListCellRendererComponent(JList<? extends Message> list, Message msg, int index, boolean isSelected, boolean cellHasFocus) {
+            bubble.setMessage(msg);
+            remove(bubble);
+            add(bubble, "sent".equals(msg.type) ? BorderLayout.EAST : BorderLayout.WEST);
+            setToolTipText(msg.isFile ? "Click to download: " + msg.fileName : null);
+            return this;
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            // Row heights are measured once per message and reused on every layout pass
+            Message msg = bubble.message;
+            if (msg.rowSize == null) {
+                Dimension bubbleSize = bubble.getPreferredSize();
+                Insets insets = getInsets();
+                msg.rowSize = new Dimension(bubbleSize.width + insets.left + insets.right,
+                    bubbleSize.height + insets.top + insets.bottom);
+            }
+            return msg.rowSize;
+        }
+    }
+
+    static class MessageBubble extends JPanel {
+        private static final Font TEXT_FONT = new Font("SansSerif", Font.PLAIN, 13);
+        private static final Font FILE_ICON_FONT = new Font("SansSerif", Font.PLAIN, 30);
+        private static final Font FILE_NAME_FONT = new Font("SansSerif", Font.BOLD, 12);
+        private static final Font FILE_INFO_FONT = new Font("SansSerif", Font.PLAIN, 11);
+        private static final Font TIME_FONT = new Font("SansSerif", Font.PLAIN, 10);
+        private static final Color SENT_COLOR = new Color(220, 248, 198);
+        private static final Color SHADOW_COLOR = new Color(0, 0, 0, 20);
+        private static final Color BORDER_COLOR = new Color(200, 200, 200);
+        private static final Color META_COLOR = new Color(100, 100, 100);
+        // Opt-in with -Dchatapp.bubbleImageCache=true: each bubble is rendered once into an
+        // image and blitted afterwards, trading memory for cheaper repaints
+        private static final boolean IMAGE_CACHE = Boolean.getBoolean("chatapp.bubbleImageCache");
+
+        private final RoundRectangle2D.Float shape = new RoundRectangle2D.Float();
+        private Message message;
         private String type;
-        private String time;
-        private String text;
-        private boolean delivered;
         private boolean isFile;
         private String fileName;
-        private String fileData; // Base64 encoded file data
 
-        public MessageBubble(String type, String time, String text, boolean delivered, boolean isFile, String fileName, String fileData) {
-            this.type = type;
-            this.time = time;
-            this.text = text;
-            this.delivered = delivered;
-            this.isFile = isFile;
-            this.fileName = fileName;
-            this.fileData = fileData;
+        public MessageBubble() {
             setOpaque(false);
             setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        }
+
+        public void setMessage(Message message) {
+            this.message = message;
+            this.type = message.type;
+            this.isFile = message.isFile;
+            this.fileName = message.fileName;
+        }
+
+        // Line breaks and measurements depend only on the message and the fonts, so they're
+        // computed once per message and shared by every paint and layout query
+        static class BubbleLayout {
+            FontMetrics textMetrics;
+            String[] lines;
+            String timeLabel;
+            int timeWidth;
+            String fileInfo;
+            Dimension size;
+            SoftReference<BufferedImage> image;
+        }
+
+        private BubbleLayout measure() {
+            FontMetrics fm = getFontMetrics(TEXT_FONT);
+            BubbleLayout layout = message.layout;
+            if (layout != null && layout.textMetrics == fm) {
+                return layout;
+            }
             
-            if (isFile) {
-                setToolTipText("Click to download: " + fileName);
-                setCursor(new Cursor(Cursor.HAND_CURSOR));
+            layout = new BubbleLayout();
+            layout.textMetrics = fm;
+            layout.lines = message.text.split("\n");
+            layout.timeLabel = message.failed ? message.time + " ⚠"
+                : "sent".equals(message.type) && message.delivered ? message.time + " ✓✓" : message.time;
+            layout.timeWidth = getFontMetrics(TIME_FONT).stringWidth(layout.timeLabel);
+            
+            if (message.isFile) {
+                layout.fileInfo = message.fileSize > 0 ? ChatPanel.formatFileSize(message.fileSize) : message.text;
+                layout.size = new Dimension(300, 70);
+            } else {
+                int maxWidth = 0;
+                for (String line : layout.lines) {
+                    maxWidth = Math.max(maxWidth, fm.stringWidth(line));
+                }
                 
-                // Add click listener for file download
-                addMouseListener(new java.awt.event.MouseAdapter() {
-                    @Override
-                    public void mouseClicked(java.awt.event.MouseEvent e) {
-                        downloadFile();
-                    }
-                });
+                int bubbleWidth = Math.max(maxWidth + 80, 150);
+                bubbleWidth = Math.min(bubbleWidth, 400);
+                layout.size = new Dimension(bubbleWidth, fm.getHeight() * layout.lines.length + 35);
             }
+            message.layout = layout;
+            return layout;
         }
-        
-        private void downloadFile() {
-            if (fileData == null || fileData.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "File data not available", "Error", JOptionPane.ERROR_MESSAGE);
+
+        // Attachment bytes are only fetched here, once the user has picked where to save them,
+        // and only if they aren't already in the local attachment store
+        static void downloadFile(Component parent, Message message, ChatApp app) {
+            if (message.id == null || message.id.isEmpty()) {
+                JOptionPane.showMessageDialog(parent, "File data not available", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setSelectedFile(new java.io.File(fileName));
+            fileChooser.setSelectedFile(new java.io.File(message.fileName));
             
-            int result = fileChooser.showSaveDialog(this);
+            int result = fileChooser.showSaveDialog(parent);
             if (result == JFileChooser.APPROVE_OPTION) {
                 java.io.File selectedFile = fileChooser.getSelectedFile();
                 
-                try {
-                    // Decode Base64 data
-                    byte[] decodedBytes = java.util.Base64.getDecoder().decode(fileData);
-                    
-                    // Write to file
-                    java.nio.file.Files.write(selectedFile.toPath(), decodedBytes);
-                    
-                    JOptionPane.showMessageDialog(this, 
-                        "File downloaded successfully!\n" + selectedFile.getAbsolutePath(), 
-                        "Success", 
-                        JOptionPane.INFORMATION_MESSAGE);
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(this, 
-                        "Failed to download file: " + ex.getMessage(), 
-                        "Error", 
-                        JOptionPane.ERROR_MESSAGE);
-                    ex.printStackTrace();
-                }
+                app.saveAttachment(message, selectedFile.toPath()).whenComplete((path, ex) ->
+                    SwingUtilities.invokeLater(() -> {
+                        if (ex == null) {
+                            JOptionPane.showMessageDialog(parent, 
+                                "File downloaded successfully!\n" + selectedFile.getAbsolutePath(), 
+                                "Success", 
+                                JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                            JOptionPane.showMessageDialog(parent, 
+                                "Failed to download file: " + cause.getMessage(), 
+                                "Error", 
+                                JOptionPane.ERROR_MESSAGE);
+                            Log.warn("Downloading " + message.fileName + " failed", cause);
+                        }
+                    }));
             }
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-            Graphics2D g2 = (Graphics2D) g.create();
+            BubbleLayout layout = measure();
+            int width = getWidth();
+            int height = getHeight();
+            
+            if (!IMAGE_CACHE) {
+                paintBubble((Graphics2D) g, layout, width, height);
+                return;
+            }
+            BufferedImage image = layout.image != null ? layout.image.get() : null;
+            if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                image = getGraphicsConfiguration() != null
+                    ? getGraphicsConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D ig = image.createGraphics();
+                paintBubble(ig, layout, width, height);
+                ig.dispose();
+                layout.image = new SoftReference<>(image);
+            }
+            g.drawImage(image, 0, 0, null);
+        }
+
+        // Draws straight onto the graphics handed down by the parent; it is a per-child copy
+        // and this bubble has no children or painted border that could see the changed state
+        private void paintBubble(Graphics2D g2, BubbleLayout layout, int width, int height) {
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-            int width = getWidth();
-            int height = getHeight();
             int arc = 15;
             int padding = 12;
 
-            Color bubbleColor = "sent".equals(type) ? new Color(220, 248, 198) : Color.WHITE;
-            Color textColor = "sent".equals(type) ? new Color(0, 0, 0) : Color.BLACK;
+            Color bubbleColor = "sent".equals(type) ? SENT_COLOR : Color.WHITE;
             
             // Draw shadow
-            g2.setColor(new Color(0, 0, 0, 20));
-            RoundRectangle2D shadow = new RoundRectangle2D.Float(padding + 2, 7, width - padding * 2, height - 12, arc, arc);
-            g2.fill(shadow);
+            g2.setColor(SHADOW_COLOR);
+            shape.setRoundRect(padding + 2, 7, width - padding * 2, height - 12, arc, arc);
+            g2.fill(shape);
             
             // Draw bubble
             g2.setColor(bubbleColor);
-            RoundRectangle2D bubble = new RoundRectangle2D.Float(padding, 5, width - padding * 2, height - 12, arc, arc);
-            g2.fill(bubble);
+            shape.setRoundRect(padding, 5, width - padding * 2, height - 12, arc, arc);
+            g2.fill(shape);
             
             // Draw border
-            g2.setColor(new Color(200, 200, 200));
-            g2.draw(bubble);
+            g2.setColor(BORDER_COLOR);
+            g2.draw(shape);
 
             // Draw file icon or text
-            g2.setColor(textColor);
-            g2.setFont(new Font("SansSerif", Font.PLAIN, 13));
-            FontMetrics fm = g2.getFontMetrics();
+            g2.setColor(Color.BLACK);
+            g2.setFont(TEXT_FONT);
             int textY = 22;
             
             if (isFile) {
                 // Draw file icon
-                g2.setFont(new Font("SansSerif", Font.PLAIN, 30));
+                g2.setFont(FILE_ICON_FONT);
                 g2.drawString("📄", padding + 10, textY + 15);
                 
                 // Draw file info
-                g2.setFont(new Font("SansSerif", Font.BOLD, 12));
+                g2.setFont(FILE_NAME_FONT);
                 g2.drawString(fileName != null ? fileName : "File", padding + 50, textY);
-                g2.setFont(new Font("SansSerif", Font.PLAIN, 11));
-                g2.setColor(new Color(100, 100, 100));
-                g2.drawString(text, padding + 50, textY + 15);
+                g2.setFont(FILE_INFO_FONT);
+                g2.setColor(META_COLOR);
+                g2.drawString(layout.fileInfo, padding + 50, textY + 15);
             } else {
                 // Draw regular text
-                String[] lines = text.split("\n");
-                for (String line : lines) {
+                int lineHeight = layout.textMetrics.getHeight();
+                for (String line : layout.lines) {
                     g2.drawString(line, padding + 10, textY);
-                    textY += fm.getHeight();
+                    textY += lineHeight;
                 }
             }
 
             // Draw timestamp and checkmarks
-            g2.setColor(new Color(100, 100, 100));
-            g2.setFont(new Font("SansSerif", Font.PLAIN, 10));
-            String timeStr = time;
-            if ("sent".equals(type) && delivered) {
-                timeStr = time + " ✓✓";
-            }
-            FontMetrics timeFm = g2.getFontMetrics();
-            g2.drawString(timeStr, width - padding - timeFm.stringWidth(timeStr) - 5, height - 8);
-
-            g2.dispose();
+            g2.setColor(META_COLOR);
+            g2.setFont(TIME_FONT);
+            g2.drawString(layout.timeLabel, width - padding - layout.timeWidth - 5, height - 8);
         }
 
         @Override
         public Dimension getPreferredSize() {
-            Font font = new Font("SansSerif", Font.PLAIN, 13);
-            FontMetrics fm = getFontMetrics(font);
-            
-            int bubbleWidth;
-            int bubbleHeight;
-            
-            if (isFile) {
-                bubbleWidth = 300;
-                bubbleHeight = 70;
-            } else {
-                String[] lines = text.split("\n");
-                int maxWidth = 0;
-                for (String line : lines) {
-                    maxWidth = Math.max(maxWidth, fm.stringWidth(line));
-                }
-                
-                bubbleWidth = Math.max(maxWidth + 80, 150);
-                bubbleWidth = Math.min(bubbleWidth, 400);
-                bubbleHeight = fm.getHeight() * lines.length + 35;
-            }
-            
-            return new Dimension(bubbleWidth, bubbleHeight);
+            return measure().size;
         }
 
         @Override
         public Dimension getMaximumSize() {
-            Dimension pref = getPreferredSize();
-            return new Dimension(500, pref.height);
+            return new Dimension(500, getPreferredSize().height);
         }
     }
 
@@ -766,7 +1091,6 @@ public class ChatApp extends JFrame {
             if (backendClient.login(mobile)) {
                 JOptionPane.showMessageDialog(loginDialog, "Login successful!");
                 loginDialog.dispose();
-                loadMessagesFromBackend();
             } else {
                 JOptionPane.showMessageDialog(loginDialog, 
                     "Login failed! User not found. Please register first.", 
@@ -803,105 +1127,408 @@ public class ChatApp extends JFrame {
         loginDialog.setVisible(true);
     }
 
+    // Opens the on-disk store and lists its conversations before touching the network. The
+    // stored cursor means the first backend sync only fetches what arrived since last run.
+    private void loadLocalHistory() {
+        tasks.run(TaskScheduler.Category.STORAGE, () -> {
+            try {
+                LocalMessageStore store = LocalMessageStore.open(backendClient.getCurrentUserMobile());
+                Runtime.getRuntime().addShutdownHook(new Thread(store::close, "local-store-close"));
+                Map<String, String> names = store.getContactNames();
+                syncCursor = store.getSyncCursor();
+                List<String> mobiles = store.getContactMobiles();
+                Log.info("Loaded " + mobiles.size() + " conversations from local store");
+                localStore = store;
+                Metrics.startReporting(store.getDirectory().resolve("metrics.log"),
+                    Long.getLong("chatapp.metrics.intervalSeconds", 60));
+                openAttachments(store.getDirectory().resolve("attachments"));
+                // Stored conversations are listed without reading their messages; each loads when opened
+                Map<String, String> stored = new LinkedHashMap<>();
+                for (String mobile : mobiles) {
+                    stored.put(mobile, names.getOrDefault(mobile, mobile));
+                }
+                conversations.addConversations(stored);
+            } catch (Exception e) {
+                Log.warn("Local store unavailable, syncing everything from backend: " + e.getMessage());
+            }
+            LocalMessageStore store = localStore;
+            Outbox queue = new Outbox(backendClient, tasks,
+                store != null ? store.getDirectory().resolve("outbox.json") : null,
+                (entry, serverId) -> SwingUtilities.invokeLater(() -> acknowledge(entry, serverId)),
+                entry -> SwingUtilities.invokeLater(() -> reject(entry)));
+            outbox = queue;
+            // Sends left over from last run go below the stored history, then out again
+            List<Outbox.Entry> unsent = queue.pending();
+            if (!unsent.isEmpty()) {
+                SwingUtilities.invokeLater(() -> unsent.forEach(this::showPending));
+            }
+            queue.flush();
+            loadMessagesFromBackend();
+            startPushConnection();
+        });
+    }
+
+    private void recordStartup(String what) {
+        if (startupMillis < 0) {
+            startupMillis = (System.nanoTime() - startupStartNanos) / 1_000_000;
+            Log.info("Initial history of " + what + " rendered in " + startupMillis + " ms");
+        }
+    }
+
+    // Timer ticks, reconnects and sends can all ask for a sync while one is still running;
+    // those collapse into a single follow-up poll instead of overlapping requests
     private void loadMessagesFromBackend() {
-        new Thread(() -> {
-            List<Map<String, String>> messages = backendClient.getMessages();
-            System.out.println("Loaded " + messages.size() + " messages from backend");
-            System.out.println("Currently have " + loadedMessageIds.size() + " message IDs in cache");
-            
+        tasks.singleFlight("sync", TaskScheduler.Category.SYNC, () -> {
+            BackendClient.MessageBatch batch;
+            do {
+                batch = backendClient.getMessages(syncCursor);
+                syncScheduler.recordSync(!batch.failed);
+                List<ChatMessage> messages = batch.messages;
+                
+                Map<String, String> names;
+                try {
+                    names = resolveNames(messages).get();
+                } catch (InterruptedException e) {
+                    // Cancelled; the cursor hasn't moved, so the next sync fetches this page again
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    Log.sampled(Log.Level.WARN, "resolveNames", "Contact lookup failed: " + e.getCause());
+                    names = Map.of(); // Shown by number until a later message resolves them
+                }
+                storeLocally(messages, batch.cursor, names);
+                conversations.addMessages(messages, names);
+                syncCursor = batch.cursor;
+            } while (batch.hasMore && !batch.messages.isEmpty());
+        });
+    }
+
+    // Messages are written before the cursor, so a crash in between only means refetching them.
+    // They are stored before they are published, so a chat opened from disk never misses one.
+    // names holds only contacts resolveNames just looked up; the rest are stored already.
+    private void storeLocally(List<ChatMessage> messages, String cursor, Map<String, String> names) {
+        LocalMessageStore store = localStore;
+        if (store == null) return;
+        store.append(messages);
+        if (cursor != null) {
+            store.setSyncCursor(cursor);
+        }
+        if (!names.isEmpty()) {
+            store.putContactNames(names);
+        }
+    }
+
+    // Resolves usernames for every new contact in the batch off the EDT, in one request, so
+    // their conversations are named before anything is shown.
+    private CompletableFuture<Map<String, String>> resolveNames(List<ChatMessage> messages) {
+        Set<String> unknownMobiles = new HashSet<>();
+        ConversationState.Snapshot known = conversations.snapshot();
+        for (ChatMessage msg : messages) {
+            String contactMobile = conversations.counterpart(msg);
+            if (known.nameFor(contactMobile) == null) {
+                unknownMobiles.add(contactMobile);
+            }
+        }
+        if (unknownMobiles.isEmpty()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        return tasks.submit(TaskScheduler.Category.CONTACTS, () -> {
+            Map<String, String> names = new HashMap<>();
+            backendClient.getUsers(unknownMobiles).forEach((mobile, userInfo) -> {
+                String username = userInfo.get("username");
+                names.put(mobile, username != null && !username.isEmpty() ? username : mobile);
+            });
+            return names;
+        });
+    }
+
+    // Runs on whichever thread changed the state. Updates arriving while one is already queued
+    // ride along with it, so bursts of polls and pushes cost one EDT task.
+    private void queueForDisplay(ConversationState.Update update) {
+        pendingUpdates.add(update);
+        if (displayScheduled.compareAndSet(false, true)) {
             SwingUtilities.invokeLater(() -> {
-                int newMessagesCount = 0;
-                int skippedCount = 0;
-                for (int i = 0; i < messages.size(); i++) {
-                    Map<String, String> msg = messages.get(i);
-                    String messageId = msg.get("id");
-                    String senderMobile = msg.get("sender_mobile");
-                    String receiverMobile = msg.get("receiver_mobile");
-                    String content = msg.get("content");
-                    String timestamp = msg.get("timestamp");
-                    
-                    System.out.println("Message " + (i+1) + ": ID=" + messageId + ", from=" + senderMobile + " to=" + receiverMobile);
-                    
-                    // Skip if already loaded
-                    if (loadedMessageIds.contains(messageId)) {
-                        skippedCount++;
-                        System.out.println("  -> SKIPPED (duplicate)");
-                        continue;
-                    }
-                    
-                    boolean isSent = senderMobile.equals(backendClient.getCurrentUserMobile());
-                    String contactMobile = isSent ? receiverMobile : senderMobile;
-                    
-                    // Check if contact exists, if not add it
-                    String contactName = findContactByMobile(contactMobile);
-                    if (contactName == null) {
-                        // Fetch username from backend
-                        Map<String, String> userInfo = backendClient.getUserInfo(contactMobile);
-                        String username = userInfo.get("username");
-                        contactName = (username != null && !username.isEmpty() && !username.equals(contactMobile)) 
-                                      ? username : contactMobile;
-                        
-                        contacts.addElement(new Contact(contactName, "Chat available", true, contactMobile));
-                        contactMobileMap.put(contactName, contactMobile);
-                        System.out.println("  -> Auto-added contact: " + contactName + " (" + contactMobile + ")");
-                    }
-                    
-                    // Get or create chat panel
-                    ChatPanel panel = chatPanels.computeIfAbsent(contactName, k -> new ChatPanel(k, this));
-                    
-                    loadedMessageIds.add(messageId);
-                    newMessagesCount++;
-                    
-                    // Format timestamp to show only time (HH:mm)
-                    String displayTime = "";
-                    if (timestamp != null && !timestamp.isEmpty()) {
-                        try {
-                            // Parse timestamp format: "2025-11-06 14:30:45"
-                            String[] parts = timestamp.split(" ");
-                            if (parts.length > 1) {
-                                String timePart = parts[1]; // "14:30:45"
-                                String[] timeParts = timePart.split(":");
-                                if (timeParts.length >= 2) {
-                                    displayTime = timeParts[0] + ":" + timeParts[1]; // "14:30"
-                                }
-                            }
-                        } catch (Exception e) {
-                            displayTime = new SimpleDateFormat("HH:mm").format(new Date());
-                        }
-                    } else {
-                        displayTime = new SimpleDateFormat("HH:mm").format(new Date());
-                    }
-                    
-                    // Check if this is a file message
-                    String isFileStr = msg.get("is_file");
-                    boolean isFile = "true".equalsIgnoreCase(isFileStr) || "True".equalsIgnoreCase(isFileStr);
-                    String fileName = msg.get("file_name");
-                    String fileData = msg.get("file_data");
-                    
-                    // Add message to chat panel
-                    panel.addMessage(isSent ? "sent" : "received", displayTime, content, true, isFile, fileName, fileData);
-                    System.out.println("  -> ADDED to chat" + (isFile ? " (FILE: " + fileName + ")" : ""));
+                displayScheduled.set(false);
+                ConversationState.Snapshot newest = conversations.snapshot();
+                List<ChatMessage> batch = new ArrayList<>();
+                ConversationState.Update queued;
+                while ((queued = pendingUpdates.poll()) != null) {
+                    batch.addAll(queued.messages());
                 }
-                System.out.println("Summary: Added " + newMessagesCount + " new messages, skipped " + skippedCount + " duplicates");
-                System.out.println("Total message IDs in cache now: " + loadedMessageIds.size());
+                showConversations(newest);
+                displayMessages(batch);
+                recordStartup(newest.conversations().size() + " conversations, " + batch.size() + " messages");
             });
-        }).start();
+        }
+    }
+
+    // Conversations are only ever added, so the sidebar catches up from where it left off. Any
+    // update's conversations are in the current snapshot too, whatever order updates arrive in.
+    private void showConversations(ConversationState.Snapshot snapshot) {
+        List<ConversationState.Conversation> all = snapshot.conversations();
+        for (; listedConversations < all.size(); listedConversations++) {
+            ConversationState.Conversation conversation = all.get(listedConversations);
+            if (contactIndex.nameFor(conversation.mobile()) == null) {
+                addContact(new Contact(conversation.name(), "Chat available", true, conversation.mobile()));
+            }
+        }
+    }
+
+    private void displayMessages(List<ChatMessage> messages) {
+        int newMessagesCount = 0;
+        int skippedCount = 0;
+        Map<ChatPanel, List<Message>> additions = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage msg = messages.get(i);
+            String messageId = msg.id();
+            
+            // Skip if already loaded
+            if (loadedMessageIds.contains(messageId)) {
+                skippedCount++;
+                continue;
+            }
+            
+            // showConversations has already listed every contact these messages came with
+            String contactName = contactIndex.nameFor(conversations.counterpart(msg));
+            if (contactName == null) {
+                continue;
+            }
+            
+            // With a local store the message is already on disk; a closed chat picks it up when opened
+            if (localStore != null && !chatPanels.contains(contactName)) {
+                continue;
+            }
+            ChatPanel panel = panelFor(contactName);
+            if (loadedMessageIds.contains(messageId)) {
+                continue;
+            }
+            // Our own send coming back before its acknowledgement: update the pending bubble
+            if (confirmPending(msg.clientId(), messageId, panel)) {
+                continue;
+            }
+            loadedMessageIds.add(messageId);
+            newMessagesCount++;
+            
+            // Add message to chat panel
+            Message message = toMessage(msg);
+            additions.computeIfAbsent(panel, k -> new ArrayList<>()).add(message);
+        }
+        additions.forEach(ChatPanel::addMessages);
+        trimConversations();
+        Metrics.meter("messages.rendered").mark(newMessagesCount);
+        int added = newMessagesCount;
+        int skipped = skippedCount;
+        Log.debug(() -> "Added " + added + " new messages, skipped " + skipped + " duplicates, "
+            + loadedMessageIds.size() + " on screen");
     }
     
-    private void startMessageRefreshTimer() {
-        messageRefreshTimer = new javax.swing.Timer(3000, e -> {
-            loadMessagesFromBackend();
+    // Renders a queued send as pending in its conversation
+    private void showPending(Outbox.Entry entry) {
+        if (pendingByClientId.containsKey(entry.clientId())) return;
+        String contactName = contactIndex.nameFor(entry.receiverMobile());
+        if (contactName == null) {
+            String name = conversations.snapshot().nameFor(entry.receiverMobile());
+            contactName = name != null ? name : entry.receiverMobile();
+            addContact(new Contact(contactName, "Chat available", true, entry.receiverMobile()));
+        }
+        ChatPanel panel = panelFor(contactName);
+        // panelFor may have just rebuilt the panel, pending entries included
+        if (pendingByClientId.containsKey(entry.clientId())) return;
+        Message message = new Message("sent", new SimpleDateFormat("HH:mm").format(new Date(entry.createdMillis())),
+            entry.content(), false, false, "", entry.clientId(), 0);
+        pendingByClientId.put(entry.clientId(), message);
+        panel.addMessages(List.of(message));
+    }
+
+    private void acknowledge(Outbox.Entry entry, String serverId) {
+        String contactName = contactIndex.nameFor(entry.receiverMobile());
+        ChatPanel panel = contactName != null && chatPanels.contains(contactName) ? chatPanels.get(contactName) : null;
+        if (panel != null) {
+            confirmPending(entry.clientId(), serverId, panel);
+        }
+    }
+
+    // Marks the pending message for clientId as delivered under its server id; false if there is none
+    private boolean confirmPending(String clientId, String serverId, ChatPanel panel) {
+        if (clientId == null || clientId.isEmpty()) return false;
+        Message message = pendingByClientId.remove(clientId);
+        if (message == null) return false;
+        message.id = serverId;
+        message.delivered = true;
+        loadedMessageIds.add(serverId);
+        panel.messageChanged(message);
+        return true;
+    }
+
+    private void reject(Outbox.Entry entry) {
+        Message message = pendingByClientId.remove(entry.clientId());
+        String contactName = contactIndex.nameFor(entry.receiverMobile());
+        if (message != null && contactName != null && chatPanels.contains(contactName)) {
+            message.failed = true;
+            chatPanels.get(contactName).messageChanged(message);
+        }
+        JOptionPane.showMessageDialog(this, 
+            "Message to " + (contactName != null ? contactName : entry.receiverMobile()) + " was rejected by the server:\n" + entry.content(), 
+            "Error", JOptionPane.ERROR_MESSAGE);
+    }
+
+    // The messages of a history page not already on screen
+    private List<Message> unseenMessages(List<ChatMessage> page) {
+        List<Message> messages = new ArrayList<>();
+        for (ChatMessage msg : page) {
+            if (loadedMessageIds.add(msg.id())) {
+                messages.add(toMessage(msg));
+            }
+        }
+        return messages;
+    }
+
+    private Message toMessage(ChatMessage msg) {
+        boolean isSent = msg.senderMobile().equals(backendClient.getCurrentUserMobile());
+        String timestamp = msg.timestamp();
+        
+        // Format timestamp to show only time (HH:mm)
+        String displayTime = "";
+        if (timestamp != null && !timestamp.isEmpty()) {
+            try {
+                // Parse timestamp format: "2025-11-06 14:30:45"
+                String[] parts = timestamp.split(" ");
+                if (parts.length > 1) {
+                    String timePart = parts[1]; // "14:30:45"
+                    String[] timeParts = timePart.split(":");
+                    if (timeParts.length >= 2) {
+                        displayTime = timeParts[0] + ":" + timeParts[1]; // "14:30"
+                    }
+                }
+            } catch (Exception e) {
+                displayTime = new SimpleDateFormat("HH:mm").format(new Date());
+            }
+        } else {
+            displayTime = new SimpleDateFormat("HH:mm").format(new Date());
+        }
+        
+        Message message = new Message(isSent ? "sent" : "received", displayTime, msg.content(), true,
+            msg.isFile(), msg.fileName(), msg.id(), msg.fileSize());
+        message.fileSha256 = msg.fileSha256();
+        return message;
+    }
+
+    private void openAttachments(Path dir) {
+        try {
+            attachments = AttachmentStore.open(dir, Long.getLong("chatapp.attachments.maxMB", 512) * 1024 * 1024);
+            Log.info("Opened " + attachments);
+        } catch (IOException e) {
+            Log.warn("Attachment store unavailable, files will be downloaded every time: " + e.getMessage());
+        }
+    }
+
+    // Saves an attachment to target. Content already on this device, because it was sent or
+    // saved before under any message, is copied from the store; anything else is downloaded
+    // into the store first so the next save of the same bytes is local. Messages the server
+    // sent without a hash are remembered by id once their content is known.
+    CompletableFuture<Path> saveAttachment(Message message, Path target) {
+        AttachmentStore store = attachments;
+        if (store == null) {
+            return backendClient.downloadFileAsync(message.id, target);
+        }
+        String known = message.fileSha256;
+        return tasks.submit(TaskScheduler.Category.STORAGE, () -> {
+            String sha256 = known != null && !known.isEmpty() ? known : store.digestFor(message.id);
+            return copyAttachment(store, sha256, target);
+        }).thenCompose(copied -> {
+            if (copied) {
+                Metrics.counter("attachments.hits").increment();
+                return CompletableFuture.completedFuture(target);
+            }
+            Metrics.counter("attachments.misses").increment();
+            return backendClient.downloadFileAsync(message.id, store.newTempFile())
+                .thenCompose(downloaded -> tasks.submit(TaskScheduler.Category.STORAGE, () -> {
+                    String sha256 = adoptAttachment(store, downloaded);
+                    if (known == null || known.isEmpty()) {
+                        store.remember(message.id, sha256);
+                        SwingUtilities.invokeLater(() -> message.fileSha256 = sha256);
+                    }
+                    if (!copyAttachment(store, sha256, target)) {
+                        throw new UncheckedIOException(new IOException("Attachment " + sha256 + " evicted before saving"));
+                    }
+                    return target;
+                }));
         });
-        messageRefreshTimer.start();
     }
 
-    private String findContactByMobile(String mobile) {
-        for (Map.Entry<String, String> entry : contactMobileMap.entrySet()) {
-            if (entry.getValue().equals(mobile)) {
-                return entry.getKey();
+    // A file the user sent is kept so saving it back from the chat doesn't download it again
+    void keepAttachment(Path file) {
+        AttachmentStore store = attachments;
+        if (store == null) return;
+        tasks.run(TaskScheduler.Category.STORAGE, () -> {
+            try {
+                store.importFile(file);
+            } catch (IOException e) {
+                Log.warn("Could not keep sent file " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static boolean copyAttachment(AttachmentStore store, String sha256, Path target) {
+        try {
+            return store.copyTo(sha256, target);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String adoptAttachment(AttachmentStore store, Path downloaded) {
+        try {
+            return store.adopt(downloaded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void startSyncScheduler() {
+        addWindowFocusListener(new WindowAdapter() {
+            @Override
+            public void windowGainedFocus(WindowEvent e) {
+                syncScheduler.setFocused(true);
+            }
+
+            @Override
+            public void windowLostFocus(WindowEvent e) {
+                syncScheduler.setFocused(false);
             }
+        });
+        Toolkit.getDefaultToolkit().addAWTEventListener(e -> syncScheduler.userActive(),
+            AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK);
+        syncScheduler.start();
+    }
+
+    // Polling is only the fallback while the push socket is down
+    private void pollIfDisconnected() {
+        if (!backendClient.isPushConnected()) {
+            loadMessagesFromBackend();
         }
-        return null;
+    }
+
+    private void startPushConnection() {
+        backendClient.connectPush(
+            // Called on the socket's listener thread, which mustn't wait on an fsync or a compaction
+            // holding the store, so storing is handed to the STORAGE queue
+            msg -> resolveNames(List.of(msg)).thenAccept(names -> tasks.run(TaskScheduler.Category.STORAGE, () -> {
+                // The cursor isn't advanced here; the next delta sync covers the push
+                storeLocally(List.of(msg), null, names);
+                conversations.addMessages(List.of(msg), names);
+            })),
+            // Catch up on anything sent while the socket was down, and send what queued up meanwhile
+            () -> {
+                loadMessagesFromBackend();
+                Outbox queue = outbox;
+                if (queue != null) queue.flush();
+            });
+    }
+
+    // Milliseconds from login to the first history batch on screen, or -1 while still loading
+    public long getStartupMillis() {
+        return startupMillis;
     }
 
     private void showAddContactDialog() {
@@ -950,24 +1577,17 @@ public class ChatApp extends JFrame {
                 return;
             }
             
-            boolean exists = false;
-            for (int i = 0; i < contacts.size(); i++) {
-                if (contacts.get(i).name.equals(name)) {
-                    exists = true;
-                    break;
-                }
-            }
-            
-            if (exists) {
+            if (contactIndex.containsName(name)) {
                 JOptionPane.showMessageDialog(addContactDialog, 
                     "Contact already exists!", 
                     "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             
-            contacts.addElement(new Contact(name, "Available", true, mobile));
+            addContact(new Contact(name, "Available", true, mobile));
             chatPanels.put(name, new ChatPanel(name, this));
-            contactMobileMap.put(name, mobile);
+            trimConversations();
+            conversations.addConversations(Map.of(mobile, name));
             
             JOptionPane.showMessageDialog(addContactDialog, 
                 "Contact added successfully!", 
@@ -1048,7 +1668,7 @@ public class ChatApp extends JFrame {
             
             if (!newUsername.isEmpty()) {
                 final String finalAbout = about;
-                new Thread(() -> {
+                tasks.run(TaskScheduler.Category.SETTINGS, () -> {
                     boolean success = backendClient.register(
                         backendClient.getCurrentUserMobile(), 
                         newUsername,
@@ -1066,7 +1686,7 @@ public class ChatApp extends JFrame {
                                 "Info", JOptionPane.INFORMATION_MESSAGE);
                         }
                     });
-                }).start();
+                });
             }
         });
         
@@ -1081,6 +1701,8 @@ public class ChatApp extends JFrame {
     }
 
     public static void main(String[] args) {
+        EdtWatchdog.install();
+        Metrics.registerMBean();
         SwingUtilities.invokeLater(() -> {
             new ChatApp().setVisible(true);
         });
@@ -0,0 +1,59 @@
+package com.example.chatapp;
+
+import java.io.IOException;
+
+// A message as returned by the backend. Missing string fields are "" rather than null.
+// Attachments carry only metadata; the bytes are fetched with BackendClient.downloadFileAsync.
+public record ChatMessage(
+        String id,
+        String senderMobile,
+        String receiverMobile,
+        String content,
+        String timestamp,
+        boolean isFile,
+        String fileName,
+        long fileSize,
+        String contentType,
+        String clientId, // Set on messages this user sent through the outbox
+        String fileSha256) { // Attachment content hash, for finding it in the AttachmentStore
+
+    public static ChatMessage read(JsonReader reader) throws IOException {
+        String id = "", senderMobile = "", receiverMobile = "", content = "", timestamp = "";
+        String fileName = "", contentType = "", clientId = "", fileSha256 = "";
+        long fileSize = 0;
+        boolean isFile = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = orEmpty(reader.nextString());
+                case "sender_mobile" -> senderMobile = orEmpty(reader.nextString());
+                case "receiver_mobile" -> receiverMobile = orEmpty(reader.nextString());
+                case "content" -> content = orEmpty(reader.nextString());
+                case "timestamp" -> timestamp = orEmpty(reader.nextString());
+                case "is_file" -> isFile = reader.nextBoolean();
+                case "file_name" -> fileName = orEmpty(reader.nextString());
+                case "file_size" -> fileSize = parseLong(reader.nextString());
+                case "content_type" -> contentType = orEmpty(reader.nextString());
+                case "client_id" -> clientId = orEmpty(reader.nextString());
+                case "file_sha256" -> fileSha256 = orEmpty(reader.nextString());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ChatMessage(id, senderMobile, receiverMobile, content, timestamp, isFile, fileName, fileSize, contentType,
+            clientId, fileSha256);
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.chatapp;
+
+import java.util.*;
+
+// Contacts indexed both ways (mobile <-> name) plus an n-gram index over names and numbers
+// for the search box. Every 1-, 2- and 3-character substring maps to the contacts containing
+// it, so a query of up to three characters is a single lookup, and a longer one intersects the
+// postings of its trigrams and verifies the few candidates left. Results come back in the
+// order contacts were added, matching the sidebar. Safe to query from a background thread.
+public class ContactIndex {
+    private static final int MAX_GRAM = 3;
+
+    private final Map<String, String> nameByMobile = new HashMap<>();
+    private final Map<String, String> mobileByName = new HashMap<>();
+    private final Map<String, Integer> orderByMobile = new HashMap<>();
+    private final Map<String, Set<String>> mobilesByGram = new HashMap<>();
+
+    public synchronized void put(String name, String mobile) {
+        String previous = nameByMobile.put(mobile, name);
+        if (previous != null) {
+            mobileByName.remove(previous);
+            unindex(previous, mobile);
+        }
+        mobileByName.put(name, mobile);
+        orderByMobile.putIfAbsent(mobile, orderByMobile.size());
+        for (String gram : grams(searchText(name, mobile))) {
+            mobilesByGram.computeIfAbsent(gram, k -> new HashSet<>()).add(mobile);
+        }
+    }
+
+    public synchronized String nameFor(String mobile) {
+        return nameByMobile.get(mobile);
+    }
+
+    public synchronized String mobileFor(String name) {
+        return mobileByName.get(name);
+    }
+
+    public synchronized boolean containsName(String name) {
+        return mobileByName.containsKey(name);
+    }
+
+    public synchronized int size() {
+        return nameByMobile.size();
+    }
+
+    // Mobiles of contacts whose name or number contains query, ignoring case
+    public synchronized List<String> search(String query) {
+        String needle = query.trim().toLowerCase(Locale.ROOT);
+        if (needle.isEmpty()) {
+            return sortByOrder(new ArrayList<>(nameByMobile.keySet()));
+        }
+        if (needle.length() <= MAX_GRAM) {
+            return sortByOrder(new ArrayList<>(mobilesByGram.getOrDefault(needle, Set.of())));
+        }
+
+        // Start from the rarest trigram and narrow down
+        List<Set<String>> postings = new ArrayList<>();
+        for (int i = 0; i + MAX_GRAM <= needle.length(); i++) {
+            Set<String> posting = mobilesByGram.get(needle.substring(i, i + MAX_GRAM));
+            if (posting == null) return new ArrayList<>();
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        List<String> matches = new ArrayList<>();
+        for (String mobile : postings.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < postings.size() && inAll; i++) {
+                inAll = postings.get(i).contains(mobile);
+            }
+            // Trigrams can all occur without occurring in sequence
+            if (inAll && searchText(nameByMobile.get(mobile), mobile).contains(needle)) {
+                matches.add(mobile);
+            }
+        }
+        return sortByOrder(matches);
+    }
+
+    private void unindex(String name, String mobile) {
+        for (String gram : grams(searchText(name, mobile))) {
+            Set<String> posting = mobilesByGram.get(gram);
+            if (posting != null && posting.remove(mobile) && posting.isEmpty()) {
+                mobilesByGram.remove(gram);
+            }
+        }
+    }
+
+    private List<String> sortByOrder(List<String> mobiles) {
+        mobiles.sort(Comparator.comparingInt(orderByMobile::get));
+        return mobiles;
+    }
+
+    // Name and number are joined with a separator no query contains, so no gram spans both
+    private static String searchText(String name, String mobile) {
+        return name.toLowerCase(Locale.ROOT) + "\n" + mobile.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= text.length(); i++) {
+                String gram = text.substring(i, i + n);
+                if (gram.indexOf('\n') < 0) grams.add(gram);
+            }
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.chatapp;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+// Least-recently-used cache of open conversations, bounded both by how many conversations it
+// holds and by their total weight (message count). Pinned entries, such as the chat on screen,
+// are never evicted. Eviction only happens in trim(), which the owner calls once it is able to
+// rebuild evicted values on a later miss; onEvict lets it release anything tied to them.
+// Not thread-safe: used from the EDT.
+public class ConversationCache<V> {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final BiConsumer<String, V> onEvict;
+    private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private String pinned;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ConversationCache(int maxEntries, long maxWeight, ToIntFunction<V> weigher, BiConsumer<String, V> onEvict) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.onEvict = onEvict;
+    }
+
+    // Returns the cached value, counting a hit or a miss, and marks it most recently used
+    public V get(String key) {
+        V value = entries.get(key);
+        if (value != null) hits++;
+        else misses++;
+        return value;
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public void put(String key, V value) {
+        entries.put(key, value);
+    }
+
+    public void pin(String key) {
+        pinned = key;
+    }
+
+    // Weights change as messages arrive, so this is called after every batch rather than on put
+    public void trim() {
+        long weight = 0;
+        for (V value : entries.values()) {
+            weight += weigher.applyAsInt(value);
+        }
+        Iterator<Map.Entry<String, V>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            Map.Entry<String, V> entry = eldest.next();
+            if (entry.getKey().equals(pinned)) continue;
+            weight -= weigher.applyAsInt(entry.getValue());
+            eldest.remove();
+            evictions++;
+            onEvict.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversationCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+            + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.chatapp;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+// The conversations the client knows about and the messages arriving in them, shared between
+// the threads that sync with the backend and the EDT that draws them. The state is an immutable
+// Snapshot swapped in with compare-and-set, so writers never take a lock or wait for rendering,
+// and any thread can read a consistent view. Every change is published to listeners as an
+// Update on the writer's thread; Swing listeners hand it on to the EDT themselves.
+public class ConversationState {
+    public record Conversation(String mobile, String name) {
+    }
+
+    // Conversations are only ever added, in the order first seen, which is the sidebar's order.
+    // version goes up with every added conversation.
+    public record Snapshot(long version, List<Conversation> conversations, Map<String, Conversation> byMobile) {
+        public String nameFor(String mobile) {
+            Conversation conversation = byMobile.get(mobile);
+            return conversation != null ? conversation.name() : null;
+        }
+    }
+
+    // added holds the conversations new in snapshot, messages those that came with the change
+    public record Update(Snapshot snapshot, List<Conversation> added, List<ChatMessage> messages) {
+    }
+
+    private final String selfMobile;
+    private final AtomicReference<Snapshot> state = new AtomicReference<>(new Snapshot(0, List.of(), Map.of()));
+    private final List<Consumer<Update>> listeners = new CopyOnWriteArrayList<>();
+
+    public ConversationState(String selfMobile) {
+        this.selfMobile = selfMobile;
+    }
+
+    public Snapshot snapshot() {
+        return state.get();
+    }
+
+    public void subscribe(Consumer<Update> listener) {
+        listeners.add(listener);
+    }
+
+    // Adds the conversations not known yet, in the map's order; known ones keep their names
+    public void addConversations(Map<String, String> namesByMobile) {
+        publish(namesByMobile, List.of());
+    }
+
+    // Publishes messages, first adding a conversation for each new counterpart, named from
+    // names or else by its number
+    public void addMessages(List<ChatMessage> messages, Map<String, String> names) {
+        Map<String, String> counterparts = new LinkedHashMap<>();
+        for (ChatMessage msg : messages) {
+            String mobile = counterpart(msg);
+            counterparts.putIfAbsent(mobile, names.getOrDefault(mobile, mobile));
+        }
+        publish(counterparts, messages);
+    }
+
+    // The other side of a message we sent or received
+    public String counterpart(ChatMessage msg) {
+        return msg.senderMobile().equals(selfMobile) ? msg.receiverMobile() : msg.senderMobile();
+    }
+
+    private void publish(Map<String, String> namesByMobile, List<ChatMessage> messages) {
+        Snapshot current;
+        Snapshot next;
+        List<Conversation> added;
+        do {
+            current = state.get();
+            added = new ArrayList<>();
+            for (Map.Entry<String, String> entry : namesByMobile.entrySet()) {
+                if (!current.byMobile().containsKey(entry.getKey())) {
+                    added.add(new Conversation(entry.getKey(), entry.getValue()));
+                }
+            }
+            next = added.isEmpty() ? current : extend(current, added);
+        } while (next != current && !state.compareAndSet(current, next));
+
+        Update update = new Update(next, List.copyOf(added), List.copyOf(messages));
+        for (Consumer<Update> listener : listeners) {
+            listener.accept(update);
+        }
+    }
+
+    private static Snapshot extend(Snapshot current, List<Conversation> added) {
+        List<Conversation> conversations = new ArrayList<>(current.conversations());
+        conversations.addAll(added);
+        Map<String, Conversation> byMobile = new HashMap<>(current.byMobile());
+        for (Conversation conversation : added) {
+            byMobile.put(conversation.mobile(), conversation);
+        }
+        return new Snapshot(current.version() + 1, Collections.unmodifiableList(conversations),
+            Collections.unmodifiableMap(byMobile));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.chatapp;
+
+import java.awt.*;
+
+// Event queue that times every event dispatched on the EDT. Events running longer than the
+// threshold are logged when they finish, and a monitor thread dumps the EDT stack while one
+// is still stuck, so the blocking call shows up even if it never returns.
+public class EdtWatchdog extends EventQueue {
+    private final long thresholdNanos;
+    private volatile long dispatchStartNanos; // Start of the innermost event running; 0 while idle
+    private long dispatchCount; // EDT only
+    private volatile Thread edt;
+
+    public EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+    }
+
+    // Threshold comes from -Dchatapp.edt.stallMillis (default 200 ms, 0 disables)
+    public static void install() {
+        long thresholdMillis = Long.getLong("chatapp.edt.stallMillis", 200);
+        if (thresholdMillis <= 0) return;
+        EdtWatchdog watchdog = new EdtWatchdog(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+        watchdog.startMonitor(thresholdMillis);
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        edt = Thread.currentThread();
+        long start = System.nanoTime();
+        long sequence = ++dispatchCount;
+        dispatchStartNanos = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            // A modal dialog dispatches the events it waits on from inside the one that opened it.
+            // Those nested events are timed on their own; the opener isn't, since its time is
+            // mostly the user reading the dialog.
+            dispatchStartNanos = 0;
+            if (dispatchCount == sequence) {
+                long elapsed = System.nanoTime() - start;
+                Metrics.histogram("edt.dispatch").record(elapsed);
+                if (elapsed > thresholdNanos) {
+                    Log.warn("EDT stall: " + describe(event) + " took " + elapsed / 1_000_000 + " ms");
+                }
+            }
+        }
+    }
+
+    // The EDT waits here between events, including inside a modal dialog's nested loop, so the
+    // monitor doesn't count waiting for the user as a stall
+    @Override
+    public AWTEvent getNextEvent() throws InterruptedException {
+        dispatchStartNanos = 0;
+        return super.getNextEvent();
+    }
+
+    private void startMonitor(long thresholdMillis) {
+        Thread monitor = new Thread(() -> {
+            long reportedStart = 0;
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(thresholdMillis / 2, 10));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long start = dispatchStartNanos;
+                Thread thread = edt;
+                if (start != 0 && start != reportedStart && thread != null
+                        && System.nanoTime() - start > thresholdNanos) {
+                    reportedStart = start;
+                    StringBuilder trace = new StringBuilder("EDT blocked for over " + thresholdMillis + " ms at:");
+                    for (StackTraceElement frame : thread.getStackTrace()) {
+                        trace.append("\n\tat ").append(frame);
+                    }
+                    Log.warn(trace.toString());
+                }
+            }
+        }, "edt-watchdog");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    private static String describe(AWTEvent event) {
+        String source = event.getSource() != null ? event.getSource().getClass().getSimpleName() : "null";
+        return event.getClass().getSimpleName() + "[id=" + event.getID() + ", source=" + source + "]";
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.chatapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// Single-pass pull tokenizer over a character stream. Values are decoded straight out of a
+// fixed read buffer, so a response is never materialised as one big String. Separators
+// (',' and ':') are skipped leniently; the input is trusted to be well-formed JSON.
+public class JsonReader implements Closeable {
+
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, LITERAL, END }
+
+    private static final int NAME_TABLE_SIZE = 64;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private char[] scratch = new char[256];
+    // Object keys repeat for every message, so decoded names are interned here and reused
+    private final String[] nameTable = new String[NAME_TABLE_SIZE];
+
+    public JsonReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+
+    public Token peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return Token.END;
+            char c = buffer[pos];
+            switch (c) {
+                case ' ': case '\t': case '\n': case '\r': case ',': case ':':
+                    pos++;
+                    continue;
+                case '{': return Token.BEGIN_OBJECT;
+                case '}': return Token.END_OBJECT;
+                case '[': return Token.BEGIN_ARRAY;
+                case ']': return Token.END_ARRAY;
+                case '"': return Token.STRING;
+                default: return Token.LITERAL;
+            }
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+
+    public String nextName() throws IOException {
+        expectToken(Token.STRING);
+        pos++;
+        int length = readStringInto();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + scratch[i];
+        }
+        int slot = hash & (NAME_TABLE_SIZE - 1);
+        String cached = nameTable[slot];
+        if (cached != null && cached.length() == length && matchesScratch(cached)) {
+            return cached;
+        }
+        String name = new String(scratch, 0, length);
+        nameTable[slot] = name;
+        return name;
+    }
+
+    // Strings come back decoded; numbers and booleans as their literal text; null as null
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            pos++;
+            int length = readStringInto(); // may grow scratch
+            return new String(scratch, 0, length);
+        }
+        if (token == Token.LITERAL) {
+            String literal = readLiteral();
+            return "null".equals(literal) ? null : literal;
+        }
+        throw new IOException("Expected a value but was " + token);
+    }
+
+    public boolean nextBoolean() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Boolean.parseBoolean(nextString());
+        }
+        expectToken(Token.LITERAL);
+        return "true".equals(readLiteral());
+    }
+
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT: case BEGIN_ARRAY:
+                    pos++;
+                    depth++;
+                    break;
+                case END_OBJECT: case END_ARRAY:
+                    pos++;
+                    depth--;
+                    break;
+                case STRING:
+                    pos++;
+                    skipString();
+                    break;
+                case LITERAL:
+                    skipLiteral();
+                    break;
+                default:
+                    throw new EOFException("Unexpected end of JSON");
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token token) throws IOException {
+        expectToken(token);
+        pos++;
+    }
+
+    private void expectToken(Token token) throws IOException {
+        Token actual = peek();
+        if (actual != token) {
+            throw new IOException("Expected " + token + " but was " + actual);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            pos = limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    private char nextChar() throws IOException {
+        if (pos == limit && !fill()) throw new EOFException("Unterminated JSON string");
+        return buffer[pos++];
+    }
+
+    // Decodes the rest of a string (opening quote already consumed) into scratch
+    private int readStringInto() throws IOException {
+        int length = 0;
+        while (true) {
+            // Copy plain runs straight from the read buffer
+            int start = pos;
+            while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+                pos++;
+            }
+            int run = pos - start;
+            if (run > 0) {
+                ensureScratch(length + run);
+                System.arraycopy(buffer, start, scratch, length, run);
+                length += run;
+            }
+            if (pos == limit) {
+                if (!fill()) throw new EOFException("Unterminated JSON string");
+                continue;
+            }
+            char c = buffer[pos++];
+            if (c == '"') {
+                return length;
+            }
+            ensureScratch(length + 1);
+            scratch[length++] = readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char c = nextChar();
+        switch (c) {
+            case 'n': return '\n';
+            case 't': return '\t';
+            case 'r': return '\r';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) throw new IOException("Bad \\u escape in JSON string");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                return c; // '"', '\\' and '/'
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            char c = nextChar();
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        StringBuilder literal = new StringBuilder(8);
+        while ((pos < limit || fill()) && isLiteralChar(buffer[pos])) {
+            literal.append(buffer[pos++]);
+        }
+        return literal.toString();
+    }
+
+    private void skipLiteral() throws IOException {
+        while ((pos < limit || fill()) && isLiteralChar(buffer[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isLiteralChar(char c) {
+        return c != ',' && c != '}' && c != ']' && c != ':' && c != '"' && !Character.isWhitespace(c);
+    }
+
+    private void ensureScratch(int capacity) {
+        if (capacity > scratch.length) {
+            scratch = java.util.Arrays.copyOf(scratch, Math.max(capacity, scratch.length * 2));
+        }
+    }
+
+    private boolean matchesScratch(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != scratch[i]) return false;
+        }
+        return true;
+    }
+}
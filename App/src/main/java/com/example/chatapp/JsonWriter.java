@@ -0,0 +1,119 @@
+package com.example.chatapp;
+
+// Minimal JSON builder for request bodies. Every string is escaped, so user text with
+// quotes, backslashes or control characters always produces valid JSON.
+public class JsonWriter {
+    private final StringBuilder out;
+    private boolean needsComma;
+
+    public JsonWriter() {
+        this(64);
+    }
+
+    public JsonWriter(int capacity) {
+        this.out = new StringBuilder(capacity);
+    }
+
+    public JsonWriter beginObject() {
+        separate();
+        out.append('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        out.append('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        out.append('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        out.append(']');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        out.append(':');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            out.append("null");
+        } else {
+            writeString(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        out.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        out.append(value);
+        needsComma = true;
+        return this;
+    }
+
+    // JSON has no NaN or infinity, so those are written as null
+    public JsonWriter value(double value) {
+        separate();
+        if (Double.isFinite(value)) {
+            out.append(value);
+        } else {
+            out.append("null");
+        }
+        needsComma = true;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void separate() {
+        if (needsComma) {
+            out.append(',');
+            needsComma = false;
+        }
+    }
+
+    private void writeString(String s) {
+        out.append('"');
+        int runStart = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape;
+            if (c == '"') escape = "\\\"";
+            else if (c == '\\') escape = "\\\\";
+            else if (c == '\n') escape = "\\n";
+            else if (c == '\r') escape = "\\r";
+            else if (c == '\t') escape = "\\t";
+            else if (c < 0x20) escape = String.format("\\u%04x", (int) c);
+            else continue;
+            out.append(s, runStart, i).append(escape);
+            runStart = i + 1;
+        }
+        out.append(s, runStart, s.length());
+        out.append('"');
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chatapp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of durations laid out like HdrHistogram: the first SUB_BUCKETS microseconds get a
+// bucket each, and every power of two above that is split into SUB_BUCKETS / 2 linear
+// buckets, so any value is kept to within 1/64 of itself at every scale. Recording is a few
+// shifts and an atomic add with no allocation, so it can sit on hot paths and be fed from any
+// thread. Durations are recorded in nanoseconds and reported in microseconds.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_BITS = 36; // Longest tracked duration is about 19 hours
+    private static final long MAX_MICROS = (1L << MAX_BITS) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS) * HALF);
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+        counts.incrementAndGet(indexOf(micros));
+        totalMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long maxMicros() {
+        return maxMicros.get();
+    }
+
+    public long meanMicros() {
+        long count = count();
+        return count == 0 ? 0 : totalMicros.sum() / count;
+    }
+
+    // The value at percentile (0-100), reported as the top of its bucket like HdrHistogram does
+    public long percentileMicros(double percentile) {
+        long count = count();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), maxMicros());
+            }
+        }
+        return maxMicros();
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        // Shift so the top bit lands on the highest sub-bucket bit; what's left picks the bucket
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        int sub = (int) (micros >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF);
+    }
+
+    private static long highestInBucket(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + count() + ", p50=" + percentileMicros(50) + "us, p99="
+            + percentileMicros(99) + "us, max=" + maxMicros() + "us]";
+    }
+}
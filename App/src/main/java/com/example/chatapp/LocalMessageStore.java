@@ -0,0 +1,747 @@
+package com.example.chatapp;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// On-disk message history for one user, kept under ~/.chatapp/<mobile>/ (or -Dchatapp.dataDir).
+//
+// Messages go into an append-only log split into numbered segment files. Each open starts a
+// fresh segment, so every older segment is immutable and can be memory-mapped once for
+// reads. A record is [length][crc32][payload]; a torn record at the end of a segment (crash
+// mid-write) fails its checksum and is dropped.
+//
+// index.dat maps each contact to the positions of its records and lists every stored id, so
+// a conversation is read without scanning the log. Checkpoints in the background append what
+// was indexed since to index.journal, and only rewrite index.dat once the journal has grown to
+// half its size, so a checkpoint costs what changed rather than the whole history. A load
+// replays the journal and catches up from the segments written since; if the index is missing
+// or unreadable it is rebuilt from the log on the store thread. Small segments left behind by
+// short sessions are merged by a background compaction into a new file named for the range of
+// segments it replaces (segment-<first>-<last>.log). The old files stay mapped until readers
+// move to the merged one, so they are deleted afterwards, or on the next open if that fails.
+public class LocalMessageStore implements Closeable {
+    private static final int INDEX_MAGIC = 0x43484958; // "CHIX"
+    private static final int INDEX_VERSION = 2; // 2 added the generation shared with the journal
+    private static final int JOURNAL_MAGIC = 0x43484a4e; // "CHJN"
+    private static final int JOURNAL_MIN_REWRITE = 4096; // Entries before the journal is folded into index.dat
+    private static final int RECORD_VERSION = 3; // 2 added client_id, 3 file_sha256
+    private static final long SEGMENT_SIZE = 8L * 1024 * 1024;
+    private static final int COMPACT_MIN_SEGMENTS = 4;
+    private static final long CHECKPOINT_SECONDS = 10;
+
+    private final Path dir;
+    private final String ownerMobile;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "local-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private final Map<String, PositionList> positionsByContact = new HashMap<>();
+    private final MessageIdSet ids = new MessageIdSet();
+    private boolean indexReady;
+    private boolean indexRewrite; // index.dat must be written whole, e.g. after a rebuild
+    private final List<IndexEntry> unsavedIndex = new ArrayList<>(); // Indexed since the last checkpoint
+    private long indexGeneration; // Ties index.journal to the index.dat it extends
+    private int journalEntries;
+    private final Properties state = new Properties(); // sync cursor and contact names
+    private boolean closed;
+
+    private LocalMessageStore(Path dir, String ownerMobile) {
+        this.dir = dir;
+        this.ownerMobile = ownerMobile;
+    }
+
+    public static LocalMessageStore open(String ownerMobile) throws IOException {
+        return open(ownerMobile, true);
+    }
+
+    // Tests pass false and call compact() themselves
+    static LocalMessageStore open(String ownerMobile, boolean compactInBackground) throws IOException {
+        String root = System.getProperty("chatapp.dataDir",
+            Paths.get(System.getProperty("user.home"), ".chatapp").toString());
+        Path dir = Paths.get(root, ownerMobile.replaceAll("[^0-9A-Za-z+_-]", "_"));
+        Files.createDirectories(dir);
+
+        LocalMessageStore store = new LocalMessageStore(dir, ownerMobile);
+        store.load(compactInBackground);
+        return store;
+    }
+
+    private synchronized void load(boolean compactInBackground) throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String[] range = name.substring("segment-".length(), name.length() - ".log".length()).split("-");
+                int first = Integer.parseInt(range[0]);
+                found.add(new Segment(first, range.length > 1 ? Integer.parseInt(range[1]) : first, file));
+            }
+        }
+        // Widest range first, so a merged segment comes before the ones it replaced
+        found.sort(Comparator.comparingInt((Segment segment) -> segment.id).thenComparing(segment -> -segment.lastId));
+        int nextId = 1;
+        int coveredTo = 0;
+        for (Segment segment : found) {
+            nextId = Math.max(nextId, segment.lastId + 1);
+            if (segment.lastId <= coveredTo) {
+                // Merged already; its delete failed while the last session still had it mapped
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException e) {
+                    Log.warn("Local store: cannot delete compacted " + segment.file.getFileName() + ": " + e.getMessage());
+                }
+                continue;
+            }
+            segments.put(segment.id, segment);
+            coveredTo = segment.lastId;
+        }
+        Path statePath = dir.resolve("state.properties");
+        if (Files.exists(statePath)) {
+            try (Reader in = Files.newBufferedReader(statePath, StandardCharsets.UTF_8)) {
+                state.load(in);
+            }
+        }
+
+        openActiveSegment(nextId);
+
+        indexReady = loadIndex();
+        if (!indexReady) {
+            worker.execute(this::ensureIndex);
+        }
+        worker.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS, TimeUnit.SECONDS);
+        if (compactInBackground) {
+            worker.execute(this::compact);
+        }
+    }
+
+    // Appends messages not stored yet, in order, and forces them to disk
+    public synchronized void append(List<ChatMessage> messages) {
+        if (closed || messages.isEmpty()) return;
+        ensureIndex();
+        List<ChatMessage> addedMessages = new ArrayList<>();
+        try {
+            if (active.size >= SEGMENT_SIZE) {
+                active.channel.close();
+                active.channel = null;
+                openActiveSegment(active.id + 1);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(messages.size() * 128);
+            List<Long> added = new ArrayList<>();
+            long position = active.size;
+            for (ChatMessage msg : messages) {
+                if (msg.id().isEmpty() || !ids.add(msg.id())) continue;
+                byte[] record = encodeRecord(msg);
+                bytes.write(record);
+                added.add(position(active.id, position));
+                addedMessages.add(msg);
+                position += record.length;
+            }
+            if (added.isEmpty()) return;
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                active.channel.write(buffer, active.size + buffer.position());
+            }
+            active.channel.force(false);
+            active.size = position;
+            for (int i = 0; i < added.size(); i++) {
+                ChatMessage msg = addedMessages.get(i);
+                addPosition(msg.id(), contactOf(msg), added.get(i));
+            }
+        } catch (IOException e) {
+            Log.warn("Local store append failed: " + e.getMessage());
+            // Not on disk, so let the next sync try these again
+            addedMessages.forEach(msg -> ids.remove(msg.id()));
+        }
+    }
+
+    // Every stored message in the order it was stored
+    public synchronized List<ChatMessage> readAll() {
+        ensureIndex();
+        PositionList all = new PositionList();
+        for (PositionList list : positionsByContact.values()) {
+            all.addAll(list);
+        }
+        // Positions are (segment, offset) pairs packed high-to-low, so they sort in log order
+        Arrays.sort(all.values, 0, all.size);
+        return readPositions(all, 0, all.size);
+    }
+
+    // Messages from..to (exclusive) of a conversation, counted in the order they were stored,
+    // so a page costs the same however long the conversation is
+    public synchronized List<ChatMessage> readConversation(String contactMobile, int from, int to) {
+        ensureIndex();
+        PositionList list = positionsByContact.get(contactMobile);
+        from = Math.max(from, 0);
+        to = Math.min(to, list != null ? list.size : 0);
+        return from < to ? readPositions(list, from, to) : new ArrayList<>();
+    }
+
+    public synchronized int conversationSize(String contactMobile) {
+        ensureIndex();
+        PositionList list = positionsByContact.get(contactMobile);
+        return list != null ? list.size : 0;
+    }
+
+    // Contacts ordered by their first stored message, as readAll would introduce them
+    public synchronized List<String> getContactMobiles() {
+        ensureIndex();
+        List<String> mobiles = new ArrayList<>(positionsByContact.keySet());
+        mobiles.sort(Comparator.comparingLong(mobile -> positionsByContact.get(mobile).values[0]));
+        return mobiles;
+    }
+
+    public synchronized boolean contains(String messageId) {
+        ensureIndex();
+        return ids.contains(messageId);
+    }
+
+    // Where this user's files live, for sidecar state such as the outbox
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public synchronized String getSyncCursor() {
+        return state.getProperty("cursor");
+    }
+
+    public synchronized void setSyncCursor(String cursor) {
+        if (cursor == null || cursor.equals(state.getProperty("cursor"))) return;
+        state.setProperty("cursor", cursor);
+        saveState();
+    }
+
+    public synchronized Map<String, String> getContactNames() {
+        Map<String, String> names = new HashMap<>();
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith("name.")) {
+                names.put(key.substring(5), state.getProperty(key));
+            }
+        }
+        return names;
+    }
+
+    public synchronized void putContactNames(Map<String, String> names) {
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            Object previous = state.setProperty("name." + entry.getKey(), entry.getValue());
+            changed |= !entry.getValue().equals(previous);
+        }
+        if (changed) saveState();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        worker.shutdownNow();
+        checkpoint();
+        try {
+            active.channel.close();
+            if (active.size == 0) {
+                // Nothing was written this session; don't leave an empty segment behind
+                segments.remove(active.id);
+                Files.deleteIfExists(active.file);
+            }
+        } catch (IOException e) {
+            Log.warn("Local store close failed: " + e.getMessage());
+        }
+    }
+
+    private void openActiveSegment(int id) throws IOException {
+        Path file = dir.resolve(segmentName(id, id));
+        active = new Segment(id, id, file);
+        active.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(id, active);
+    }
+
+    // The newest segment with data in it; an index covers it up to its current end
+    private Segment coveredSegment() {
+        return active.size > 0 ? active : lastSealed();
+    }
+
+    private Segment lastSealed() {
+        Map.Entry<Integer, Segment> entry = segments.lowerEntry(active.id);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    // Folds the journal into index.dat once it's half as big, so the rewrites cost O(1) per message
+    private synchronized void checkpoint() {
+        if (!indexReady) return;
+        if (indexRewrite || journalEntries + unsavedIndex.size() > Math.max(JOURNAL_MIN_REWRITE, ids.size() / 2)) {
+            saveIndex();
+        } else if (!unsavedIndex.isEmpty()) {
+            appendJournal();
+        }
+    }
+
+    private synchronized void ensureIndex() {
+        if (indexReady) return;
+        positionsByContact.clear();
+        ids.clear();
+        long start = System.nanoTime();
+        for (Segment segment : segments.values()) {
+            scanSegment(segment, 0);
+        }
+        unsavedIndex.clear();
+        indexReady = true;
+        indexRewrite = true;
+        Log.info("Rebuilt local message index: " + ids.size() + " messages in "
+            + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Indexes every intact record from offset to the end of the segment
+    private void scanSegment(Segment segment, long offset) {
+        try {
+            ByteBuffer data = segment.map();
+            int pos = (int) offset;
+            while (pos + 8 <= data.limit()) {
+                ChatMessage msg = readRecord(data, pos);
+                if (msg == null) {
+                    Log.warn("Local store: dropping torn tail of " + segment.file.getFileName() + " at " + pos);
+                    break;
+                }
+                // Ids already seen come from an interrupted compaction; the first copy wins
+                if (ids.add(msg.id())) {
+                    addPosition(msg.id(), contactOf(msg), position(segment.id, pos));
+                }
+                pos += 8 + data.getInt(pos);
+            }
+        } catch (IOException e) {
+            Log.warn("Local store: cannot read " + segment.file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private List<ChatMessage> readPositions(PositionList list, int from, int to) {
+        List<ChatMessage> messages = new ArrayList<>(to - from);
+        try {
+            for (int i = from; i < to; i++) {
+                long position = list.values[i];
+                Segment segment = segments.get((int) (position >>> 32));
+                ChatMessage msg = segment != null ? readRecord(segment.map(), (int) position) : null;
+                if (msg != null) messages.add(msg);
+            }
+        } catch (IOException e) {
+            Log.warn("Local store read failed: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    // Merges runs of undersized sealed segments into one. The merged file keeps the first
+    // segment's id, so segment order (and therefore log order) is unchanged.
+    synchronized void compact() {
+        if (closed) return;
+        ensureIndex();
+        List<Segment> run = new ArrayList<>();
+        long runSize = 0;
+        for (Segment segment : segments.values()) {
+            if (segment == active) break;
+            long size = segment.file.toFile().length();
+            if (size >= SEGMENT_SIZE / 2 || runSize + size > SEGMENT_SIZE) {
+                if (run.size() >= COMPACT_MIN_SEGMENTS) break;
+                run.clear();
+                runSize = 0;
+                if (size >= SEGMENT_SIZE / 2) continue;
+            }
+            run.add(segment);
+            runSize += size;
+        }
+        if (run.size() < COMPACT_MIN_SEGMENTS) return;
+
+        long start = System.nanoTime();
+        Segment first = run.get(0);
+        int lastId = run.get(run.size() - 1).lastId;
+        Path merged = dir.resolve(segmentName(first.id, lastId));
+        Path tmp = merged.resolveSibling(merged.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Segment segment : run) {
+                    // Copy only the intact prefix, dropping any torn tail
+                    ByteBuffer data = segment.map().duplicate();
+                    int end = 0;
+                    while (end + 8 <= data.limit() && readRecord(data, end) != null) {
+                        end += 8 + data.getInt(end);
+                    }
+                    data.limit(end).position(0);
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                }
+                out.force(false);
+            }
+            // A new name, so nothing that has the old segments mapped stands in the way. From
+            // here the next open prefers the merged file, and the index pointing into the old
+            // ones must go before readers switch
+            Files.move(tmp, merged, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(dir.resolve("index.dat"));
+        } catch (IOException e) {
+            Log.warn("Local store compaction failed: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        for (Segment segment : run) {
+            segments.remove(segment.id);
+        }
+        segments.put(first.id, new Segment(first.id, lastId, merged));
+        indexReady = false;
+        ensureIndex();
+        saveIndex();
+        for (Segment segment : run) {
+            segment.mapped = null;
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                // Still mapped (Windows won't delete it until the mapping is collected); load() retries
+                Log.info("Local store: " + segment.file.getFileName() + " is removed on the next open: " + e.getMessage());
+            }
+        }
+        Log.info("Compacted " + run.size() + " local segments in "
+            + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private boolean loadIndex() {
+        Path indexPath = dir.resolve("index.dat");
+        if (!Files.exists(indexPath)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return false;
+            indexGeneration = in.readLong();
+            int coveredSegment = in.readInt();
+            long coveredSize = in.readLong();
+            int idCount = in.readInt();
+            for (int i = 0; i < idCount; i++) {
+                ids.add(in.readUTF());
+            }
+            int contactCount = in.readInt();
+            for (int i = 0; i < contactCount; i++) {
+                String contact = in.readUTF();
+                int count = in.readInt();
+                PositionList list = new PositionList(count);
+                for (int j = 0; j < count; j++) {
+                    list.add(in.readLong());
+                }
+                positionsByContact.put(contact, list);
+            }
+            long[] covered = {coveredSegment, coveredSize};
+            replayJournal(covered);
+            coveredSegment = (int) covered[0];
+            coveredSize = covered[1];
+
+            // Positions in a segment that's gone mean a compaction was cut off between moving
+            // the merged file into place and removing this index
+            int checked = -1;
+            for (PositionList list : positionsByContact.values()) {
+                for (int i = 0; i < list.size; i++) {
+                    int segmentId = (int) (list.values[i] >>> 32);
+                    if (segmentId == checked) continue;
+                    if (!segments.containsKey(segmentId)) throw new IOException("segment " + segmentId + " is missing");
+                    checked = segmentId;
+                }
+            }
+
+            // Catch up on whatever was appended after the last checkpoint
+            if (segments.get(coveredSegment) == null && coveredSegment != 0) {
+                throw new IOException("segment " + coveredSegment + " is missing");
+            }
+            for (Segment segment : segments.tailMap(coveredSegment, true).values()) {
+                if (segment != active) {
+                    scanSegment(segment, segment.id == coveredSegment ? coveredSize : 0);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.warn("Local message index unusable, rebuilding: " + e);
+            ids.clear();
+            positionsByContact.clear();
+            unsavedIndex.clear();
+            journalEntries = 0;
+            return false;
+        }
+    }
+
+    // Applies the journal batches written after index.dat, advancing covered (segment, size)
+    // past each. A torn last batch fails its checksum and is left to the segment catch-up;
+    // batches appended after it would never be read, so index.dat is rewritten instead.
+    private void replayJournal(long[] covered) throws IOException {
+        Path journalPath = dir.resolve("index.journal");
+        ByteBuffer data = Files.exists(journalPath) ? ByteBuffer.wrap(Files.readAllBytes(journalPath)) : null;
+        if (data == null || data.limit() < 12 || data.getInt(0) != JOURNAL_MAGIC || data.getLong(4) != indexGeneration) {
+            // Missing, or left from an index.dat since replaced: nothing can be appended to it
+            indexRewrite = true;
+            return;
+        }
+        int pos = 12;
+        while (pos + 8 <= data.limit()) {
+            int length = data.getInt(pos);
+            if (length <= 0 || pos + 8L + length > data.limit()) break;
+            ByteBuffer batch = data.slice(pos + 8, length);
+            CRC32 crc = new CRC32();
+            crc.update(batch.duplicate());
+            if ((int) crc.getValue() != data.getInt(pos + 4)) break;
+            int count = batch.getInt();
+            for (int i = 0; i < count; i++) {
+                String id = readString(batch);
+                String contact = readString(batch);
+                long position = batch.getLong();
+                if (ids.add(id)) {
+                    positionsByContact.computeIfAbsent(contact, k -> new PositionList()).add(position);
+                }
+            }
+            covered[0] = batch.getInt();
+            covered[1] = batch.getLong();
+            journalEntries += count;
+            pos += 8 + length;
+        }
+        if (pos != data.limit()) indexRewrite = true;
+    }
+
+    // Appends one batch of what was indexed since the last checkpoint: [length][crc32][count]
+    // [id, contact, position]... [covered segment][covered size]
+    private void appendJournal() {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(unsavedIndex.size() * 48 + 16);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(unsavedIndex.size());
+            for (IndexEntry entry : unsavedIndex) {
+                writeString(out, entry.id());
+                writeString(out, entry.contact());
+                out.writeLong(entry.position());
+            }
+            Segment covered = coveredSegment();
+            out.writeInt(covered != null ? covered.id : 0);
+            out.writeLong(covered != null ? covered.currentSize() : 0);
+
+            byte[] bytes = body.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            ByteBuffer batch = ByteBuffer.allocate(8 + bytes.length);
+            batch.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+            try (FileChannel journal = FileChannel.open(dir.resolve("index.journal"), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                while (batch.hasRemaining()) {
+                    journal.write(batch);
+                }
+            }
+            journalEntries += unsavedIndex.size();
+            unsavedIndex.clear();
+        } catch (IOException e) {
+            // The entries stay unsaved; the next checkpoint rewrites index.dat instead
+            Log.warn("Local store index journal append failed: " + e.getMessage());
+            indexRewrite = true;
+        }
+    }
+
+    private void saveIndex() {
+        Path tmp = dir.resolve("index.dat.tmp");
+        long generation;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            generation = ThreadLocalRandom.current().nextLong();
+            out.writeLong(generation);
+            // The newest segment with data in it; the next load scans on from its current end
+            Segment covered = coveredSegment();
+            out.writeInt(covered != null ? covered.id : 0);
+            out.writeLong(covered != null ? covered.currentSize() : 0);
+            out.writeInt(ids.size());
+            IOException[] failure = new IOException[1];
+            ids.forEach(id -> {
+                try {
+                    out.writeUTF(id);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) throw failure[0];
+            out.writeInt(positionsByContact.size());
+            for (Map.Entry<String, PositionList> entry : positionsByContact.entrySet()) {
+                out.writeUTF(entry.getKey());
+                PositionList list = entry.getValue();
+                out.writeInt(list.size);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeLong(list.values[i]);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Local store index save failed: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, dir.resolve("index.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            indexGeneration = generation;
+            indexRewrite = false;
+            unsavedIndex.clear();
+            // A new, empty journal for this index.dat; the old one's generation no longer matches
+            ByteBuffer header = ByteBuffer.allocate(12).putInt(JOURNAL_MAGIC).putLong(generation);
+            Files.write(dir.resolve("index.journal"), header.array());
+            journalEntries = 0;
+        } catch (IOException e) {
+            Log.warn("Local store index save failed: " + e.getMessage());
+        }
+    }
+
+    private void saveState() {
+        Path tmp = dir.resolve("state.properties.tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                state.store(out, "Chat App local state");
+            }
+            Files.move(tmp, dir.resolve("state.properties"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Local store state save failed: " + e.getMessage());
+        }
+    }
+
+    // Called once the id is in ids
+    private void addPosition(String id, String contact, long position) {
+        positionsByContact.computeIfAbsent(contact, k -> new PositionList()).add(position);
+        unsavedIndex.add(new IndexEntry(id, contact, position));
+    }
+
+    private String contactOf(ChatMessage msg) {
+        return msg.senderMobile().equals(ownerMobile) ? msg.receiverMobile() : msg.senderMobile();
+    }
+
+    private static long position(int segmentId, long offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static String segmentName(int first, int last) {
+        return first == last ? String.format("segment-%08d.log", first) : String.format("segment-%08d-%08d.log", first, last);
+    }
+
+    private static byte[] encodeRecord(ChatMessage msg) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(RECORD_VERSION);
+        writeString(out, msg.id());
+        writeString(out, msg.senderMobile());
+        writeString(out, msg.receiverMobile());
+        writeString(out, msg.content());
+        writeString(out, msg.timestamp());
+        out.writeBoolean(msg.isFile());
+        writeString(out, msg.fileName());
+        out.writeLong(msg.fileSize());
+        writeString(out, msg.contentType());
+        writeString(out, msg.clientId());
+        writeString(out, msg.fileSha256());
+
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return record.array();
+    }
+
+    // Returns null for a truncated or corrupt record
+    private static ChatMessage readRecord(ByteBuffer data, int pos) {
+        if (pos + 8 > data.limit()) return null;
+        int length = data.getInt(pos);
+        if (length <= 0 || pos + 8L + length > data.limit()) return null;
+        ByteBuffer body = data.duplicate();
+        body.limit(pos + 8 + length).position(pos + 8);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != data.getInt(pos + 4)) return null;
+
+        int version = body.get();
+        if (version < 1 || version > RECORD_VERSION) return null;
+        return new ChatMessage(readString(body), readString(body), readString(body), readString(body),
+            readString(body), body.get() != 0, readString(body), body.getLong(), readString(body),
+            version >= 2 ? readString(body) : "", version >= 3 ? readString(body) : "");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record IndexEntry(String id, String contact, long position) {}
+
+    private static class Segment {
+        final int id; // Orders segments, and the high half of a position
+        final int lastId; // Above id for a merged segment: the last of those it replaced
+        final Path file;
+        FileChannel channel; // only the active segment stays open for writing
+        long size;
+        MappedByteBuffer mapped;
+
+        Segment(int id, int lastId, Path file) {
+            this.id = id;
+            this.lastId = lastId;
+            this.file = file;
+        }
+
+        long currentSize() throws IOException {
+            return channel != null ? size : Files.size(file);
+        }
+
+        // Sealed segments never change and are mapped once; the active one is remapped
+        // whenever it has grown past the current mapping
+        ByteBuffer map() throws IOException {
+            long length = currentSize();
+            if (mapped == null || mapped.capacity() < length) {
+                if (length == 0) return ByteBuffer.allocate(0);
+                try (FileChannel read = FileChannel.open(file, StandardOpenOption.READ)) {
+                    mapped = read.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                }
+            }
+            return mapped;
+        }
+    }
+
+    // Growable long array, so large conversations don't box every position
+    private static class PositionList {
+        long[] values;
+        int size;
+
+        PositionList() {
+            this(16);
+        }
+
+        PositionList(int capacity) {
+            values = new long[Math.max(capacity, 4)];
+        }
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(PositionList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.chatapp;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Leveled logging to the console: DEBUG and INFO go to stdout, WARN and ERROR to stderr.
+// Set the threshold with -Dchatapp.log.level (default INFO). Messages that can repeat on
+// every poll or push, such as failures while the backend is down, go through sampled(),
+// which prints one per key per window and counts the ones it dropped.
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final Level THRESHOLD = parseLevel(System.getProperty("chatapp.log.level", "INFO"));
+    private static final long SAMPLE_WINDOW_NANOS = Long.getLong("chatapp.log.sampleSeconds", 30) * 1_000_000_000L;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    // The message is only built when DEBUG is on
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) write(Level.DEBUG, message.get());
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    // Appends the exception's stack trace, for failures that shouldn't happen
+    public static void warn(String message, Throwable error) {
+        if (!isEnabled(Level.WARN)) return;
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        write(Level.WARN, message + ": " + trace.toString().stripTrailing());
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void log(Level level, String message) {
+        if (isEnabled(level)) write(level, message);
+    }
+
+    // Logs the first message for key in each window and drops the rest, noting how many were dropped
+    public static void sampled(Level level, String key, String message) {
+        if (!isEnabled(level)) return;
+        long now = System.nanoTime();
+        Sample sample = samples.computeIfAbsent(key, k -> new Sample());
+        long dropped;
+        synchronized (sample) {
+            if (sample.logged && now - sample.windowStart < SAMPLE_WINDOW_NANOS) {
+                sample.dropped++;
+                return;
+            }
+            sample.logged = true;
+            sample.windowStart = now;
+            dropped = sample.dropped;
+            sample.dropped = 0;
+        }
+        write(level, dropped > 0 ? message + " (" + dropped + " similar suppressed)" : message);
+    }
+
+    private static void write(Level level, String message) {
+        String line = TIME.format(LocalTime.now()) + " " + level + " [" + Thread.currentThread().getName() + "] " + message;
+        if (level.compareTo(Level.WARN) >= 0) {
+            System.err.println(line);
+        } else {
+            System.out.println(line);
+        }
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    private static final class Sample {
+        boolean logged;
+        long windowStart;
+        long dropped;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.chatapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Set of message ids kept as primitives: an open-addressed (linear probing) table of 64-bit id
+// hashes, with each id's bytes in one shared arena so a hash match can be verified. An entry
+// costs about 16 bytes of table plus the id's length, instead of a String, its byte array and
+// a HashMap node. Lookups hash the id once and compare bytes in place, without allocating.
+public class MessageIdSet {
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] hashes;
+    private int[] offsets; // Where each slot's id starts in the arena
+    private byte[] arena;
+    private int arenaUsed;
+    private int arenaGarbage; // Bytes of removed ids, reclaimed on the next rehash
+    private int size;
+
+    public MessageIdSet() {
+        this(16);
+    }
+
+    public MessageIdSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 16) - 1) << 1;
+        hashes = new long[capacity];
+        offsets = new int[capacity];
+        arena = new byte[Math.max(expectedSize, 16) * 22];
+    }
+
+    public boolean contains(String id) {
+        return indexOf(id, hash(id)) >= 0;
+    }
+
+    public boolean add(String id) {
+        long hash = hash(id);
+        if (indexOf(id, hash) >= 0) return false;
+        int offset = append(id); // may compact and so reshuffle the table; probe afterwards
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        if (++size > hashes.length * LOAD_FACTOR) {
+            rehash(hashes.length * 2);
+        }
+        return true;
+    }
+
+    public boolean remove(String id) {
+        int slot = indexOf(id, hash(id));
+        if (slot < 0) return false;
+        arenaGarbage += entryLengthIn(arena, offsets[slot]);
+        size--;
+
+        // Backward-shift deletion: pull later entries of the probe run into the gap so lookups
+        // never need tombstones
+        int mask = hashes.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (hashes[next] != EMPTY) {
+            int home = (int) hashes[next] & mask;
+            // Move next back unless its home lies cyclically in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                hashes[gap] = hashes[next];
+                offsets[gap] = offsets[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        hashes[gap] = EMPTY;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Visits every id, decoding each from the arena; the action must not change the set
+    public void forEach(Consumer<String> action) {
+        for (int slot = 0; slot < hashes.length; slot++) {
+            if (hashes[slot] == EMPTY) continue;
+            int offset = offsets[slot];
+            int length = storedLength(offset);
+            action.accept(new String(arena, offset + (length < 0x80 ? 1 : 4), length, StandardCharsets.UTF_8));
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(hashes, EMPTY);
+        arenaUsed = 0;
+        arenaGarbage = 0;
+        size = 0;
+    }
+
+    // Approximate heap held by the table and arena
+    public long footprintBytes() {
+        return (long) hashes.length * Long.BYTES + (long) offsets.length * Integer.BYTES + arena.length;
+    }
+
+    private int indexOf(String id, long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && matches(offsets[slot], id)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // String.hashCode (an intrinsic, and cached on the String) spread to 64 bits with the
+    // length and a murmur3 finaliser, so the low bits used for the slot index are well mixed.
+    // Equal hashes are always verified against the stored bytes. Never returns EMPTY.
+    static long hash(String id) {
+        long h = ((long) id.length() << 32) ^ (id.hashCode() & 0xffffffffL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != EMPTY ? h : 1;
+    }
+
+    // Entries are [length][UTF-8 bytes]; the length is one byte below 128, otherwise four
+    // bytes with the top bit set
+    private int append(String id) {
+        byte[] bytes = isAscii(id) ? null : id.getBytes(StandardCharsets.UTF_8);
+        int length = bytes != null ? bytes.length : id.length();
+        int header = length < 0x80 ? 1 : 4;
+        ensureArena(header + length);
+        int offset = arenaUsed;
+        if (header == 1) {
+            arena[arenaUsed++] = (byte) length;
+        } else {
+            arena[arenaUsed++] = (byte) (0x80 | (length >>> 24));
+            arena[arenaUsed++] = (byte) (length >>> 16);
+            arena[arenaUsed++] = (byte) (length >>> 8);
+            arena[arenaUsed++] = (byte) length;
+        }
+        if (bytes != null) {
+            System.arraycopy(bytes, 0, arena, arenaUsed, length);
+            arenaUsed += length;
+        } else {
+            for (int i = 0; i < length; i++) {
+                arena[arenaUsed++] = (byte) id.charAt(i);
+            }
+        }
+        return offset;
+    }
+
+    private boolean matches(int offset, String id) {
+        int length = storedLength(offset);
+        int start = offset + (length < 0x80 ? 1 : 4);
+        if (length == id.length()) {
+            // Any non-ASCII char takes two or more UTF-8 bytes, so only an ASCII id can match
+            for (int i = 0; i < length; i++) {
+                char c = id.charAt(i);
+                if (c >= 0x80 || arena[start + i] != (byte) c) return false;
+            }
+            return true;
+        }
+        if (isAscii(id)) return false;
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(arena, start, start + length, bytes, 0, bytes.length);
+    }
+
+    private int storedLength(int offset) {
+        int first = arena[offset] & 0xff;
+        if (first < 0x80) return first;
+        return ((first & 0x7f) << 24) | ((arena[offset + 1] & 0xff) << 16)
+            | ((arena[offset + 2] & 0xff) << 8) | (arena[offset + 3] & 0xff);
+    }
+
+    private static boolean isAscii(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private void ensureArena(int needed) {
+        if (arenaUsed + needed <= arena.length) return;
+        if (arenaGarbage > arenaUsed / 2) {
+            // Mostly removed ids: compact instead of growing
+            rehash(hashes.length);
+            if (arenaUsed + needed <= arena.length) return;
+        }
+        arena = Arrays.copyOf(arena, Math.max(arenaUsed + needed, arena.length + (arena.length >> 1)));
+    }
+
+    // Rebuilds the table at newCapacity and copies live ids into a fresh, gap-free arena
+    private void rehash(int newCapacity) {
+        long[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+        byte[] oldArena = arena;
+        hashes = new long[newCapacity];
+        offsets = new int[newCapacity];
+        int live = arenaUsed - arenaGarbage;
+        arena = new byte[live + (live >> 1) + 16];
+        arenaUsed = 0;
+        arenaGarbage = 0;
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            long hash = oldHashes[i];
+            if (hash == EMPTY) continue;
+            int slot = (int) hash & mask;
+            while (hashes[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            int start = oldOffsets[i];
+            int length = entryLengthIn(oldArena, start);
+            System.arraycopy(oldArena, start, arena, arenaUsed, length);
+            offsets[slot] = arenaUsed;
+            arenaUsed += length;
+        }
+    }
+
+    private static int entryLengthIn(byte[] arena, int offset) {
+        int first = arena[offset] & 0xff;
+        if (first < 0x80) return 1 + first;
+        return 4 + (((first & 0x7f) << 24) | ((arena[offset + 1] & 0xff) << 16)
+            | ((arena[offset + 2] & 0xff) << 8) | (arena[offset + 3] & 0xff));
+    }
+}
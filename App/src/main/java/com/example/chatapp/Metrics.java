@@ -0,0 +1,210 @@
+package com.example.chatapp;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Process-wide registry of counters, gauges, rate meters and latency histograms, looked up by
+// name and safe to update from any thread. The current values can be read over JMX as the
+// com.example.chatapp:type=Metrics MBean, and startReporting appends them to a file once a
+// minute as one JSON object per line. Histogram values are in microseconds.
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, Meter> meters = new ConcurrentSkipListMap<>();
+    private static final long MAX_REPORT_BYTES = 1024 * 1024; // Then the file is rolled to <name>.1
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static Meter meter(String name) {
+        return meters.computeIfAbsent(name, k -> new Meter());
+    }
+
+    // A value set by its owner, e.g. from the EDT for state only the EDT may read
+    public static Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, k -> new Gauge(null));
+    }
+
+    // A value read on demand; supplier must be safe to call from any thread
+    public static void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, new Gauge(supplier));
+    }
+
+    public static final class Gauge {
+        private final LongSupplier supplier;
+        private final AtomicLong value = new AtomicLong();
+
+        private Gauge(LongSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        public void set(long value) {
+            this.value.set(value);
+        }
+
+        public long get() {
+            return supplier != null ? supplier.getAsLong() : value.get();
+        }
+    }
+
+    // Events per second over the last minute, from one slot per second
+    public static final class Meter {
+        private static final int WINDOW_SECONDS = 60;
+        private final AtomicLongArray slots = new AtomicLongArray(WINDOW_SECONDS);
+        private final AtomicLongArray slotSeconds = new AtomicLongArray(WINDOW_SECONDS);
+        private final LongAdder total = new LongAdder();
+
+        public void mark(long events) {
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % WINDOW_SECONDS);
+            long stamped = slotSeconds.get(slot);
+            // First mark in a new second claims the slot from a minute ago
+            if (stamped != second && slotSeconds.compareAndSet(slot, stamped, second)) {
+                slots.set(slot, 0);
+            }
+            slots.addAndGet(slot, events);
+            total.add(events);
+        }
+
+        public double perSecond() {
+            long now = System.currentTimeMillis() / 1000;
+            long events = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (now - slotSeconds.get(i) < WINDOW_SECONDS) events += slots.get(i);
+            }
+            return (double) events / WINDOW_SECONDS;
+        }
+
+        public long total() {
+            return total.sum();
+        }
+    }
+
+    // Every metric flattened to name -> value, in name order: histograms as .count, .mean,
+    // .p50, .p90, .p99, .p999 and .max, meters as .total and .perSecond
+    public static Map<String, Number> values() {
+        Map<String, Number> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.get()));
+        meters.forEach((name, meter) -> {
+            values.put(name + ".total", meter.total());
+            values.put(name + ".perSecond", meter.perSecond());
+        });
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".mean", histogram.meanMicros());
+            values.put(name + ".p50", histogram.percentileMicros(50));
+            values.put(name + ".p90", histogram.percentileMicros(90));
+            values.put(name + ".p99", histogram.percentileMicros(99));
+            values.put(name + ".p999", histogram.percentileMicros(99.9));
+            values.put(name + ".max", histogram.maxMicros());
+        });
+        return values;
+    }
+
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                new ObjectName("com.example.chatapp:type=Metrics"));
+        } catch (JMException e) {
+            Log.warn("Metrics MBean not registered: " + e.getMessage());
+        }
+    }
+
+    // Appends the values to file every intervalSeconds; a second call moves reporting to the new file
+    public static synchronized void startReporting(Path file, long intervalSeconds) {
+        if (reporter != null) reporter.shutdownNow();
+        if (intervalSeconds <= 0) return;
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> report(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void report(Path file) {
+        JsonWriter json = new JsonWriter().beginObject().name("time").value(System.currentTimeMillis());
+        values().forEach((name, value) -> {
+            json.name(name);
+            if (value instanceof Double d) json.value(d);
+            else json.value(value.longValue());
+        });
+        try {
+            if (Files.exists(file) && Files.size(file) > MAX_REPORT_BYTES) {
+                Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.writeString(file, json.endObject() + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (Exception e) {
+            Log.sampled(Log.Level.WARN, "metrics-report", "Metrics report failed: " + e.getMessage());
+        }
+    }
+
+    // Exposes each flattened value as a read-only attribute. The attribute list is taken when a
+    // console asks for it, so metrics created later show up on its next refresh.
+    private static final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = values().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = values.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            values().forEach((name, value) -> attributes.add(new MBeanAttributeInfo(name,
+                value.getClass().getName(), name, true, false, false)));
+            return new MBeanInfo(Metrics.class.getName(), "Chat client metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
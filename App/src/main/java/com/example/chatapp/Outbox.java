@@ -0,0 +1,215 @@
+package com.example.chatapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Messages the user has sent that the server hasn't acknowledged yet. Each gets a client id
+// up front, so the UI can show it at once and later match it to the stored copy. Sends that
+// pile up while one flush is in flight go out together in the next, as one batch request, and
+// failures are retried with backoff. The queue is kept in outbox.json next to the local store, so messages written
+// offline are still sent after a restart; it is written by a STORAGE task, never by the caller.
+public class Outbox {
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30000;
+    private static final int MAX_BATCH = 100; // Matches MAX_SEND_BATCH on the server
+
+    public record Entry(String clientId, String receiverMobile, String content, long createdMillis) {
+    }
+
+    private final BackendClient backendClient;
+    private final TaskScheduler tasks;
+    private final Path file; // null keeps the queue in memory only
+    private final BiConsumer<Entry, String> onAcked;
+    private final Consumer<Entry> onRejected;
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private long retryMillis = MIN_RETRY_MILLIS;
+    private boolean retryScheduled;
+    private boolean saveQueued;
+
+    // onAcked gets the entry and the server's message id; onRejected gets entries the server
+    // refused outright, which are dropped rather than retried
+    public Outbox(BackendClient backendClient, TaskScheduler tasks, Path file,
+                  BiConsumer<Entry, String> onAcked, Consumer<Entry> onRejected) {
+        this.backendClient = backendClient;
+        this.tasks = tasks;
+        this.file = file;
+        this.onAcked = onAcked;
+        this.onRejected = onRejected;
+        load();
+    }
+
+    public Entry enqueue(String receiverMobile, String content) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), receiverMobile, content, System.currentTimeMillis());
+        synchronized (this) {
+            pending.put(entry.clientId(), entry);
+        }
+        requestSave();
+        flush();
+        return entry;
+    }
+
+    public synchronized List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized List<Entry> pendingFor(String receiverMobile) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (entry.receiverMobile().equals(receiverMobile)) entries.add(entry);
+        }
+        return entries;
+    }
+
+    // Sends everything queued; calls made while a flush is running fold into one more pass
+    public void flush() {
+        tasks.singleFlight("outbox", TaskScheduler.Category.SEND, this::drain);
+    }
+
+    // Each pass sends up to MAX_BATCH queued messages in a single request
+    private void drain() {
+        int limit = MAX_BATCH;
+        List<Entry> queued;
+        while (!(queued = pending()).isEmpty()) {
+            List<Entry> batch = queued.subList(0, Math.min(queued.size(), limit));
+            List<BackendClient.SendResult> results;
+            try {
+                results = backendClient.sendMessages(batch);
+            } catch (BackendClient.HttpStatusException e) {
+                if (!isMessageFault(e.statusCode)) {
+                    // Unknown sender, missing endpoint, our session or the server: not the messages'
+                    // fault, so keep them all queued
+                    scheduleRetry(e);
+                    return;
+                }
+                if (batch.size() > 1) {
+                    // Refused as a whole, e.g. too large or one bad message: halve the batch until
+                    // whatever the server objects to goes out alone, so only it is dropped
+                    limit = (batch.size() + 1) / 2;
+                    continue;
+                }
+                Log.warn("Send message rejected: " + e.getMessage());
+                remove(batch);
+                onRejected.accept(batch.get(0));
+                limit = MAX_BATCH;
+                continue;
+            } catch (IOException e) {
+                // Keep order: later messages wait for these
+                scheduleRetry(e);
+                return;
+            }
+            limit = MAX_BATCH;
+            if (results.size() != batch.size()) {
+                scheduleRetry(new IOException("Expected " + batch.size() + " results but got " + results.size()));
+                return;
+            }
+            remove(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                Entry entry = batch.get(i);
+                BackendClient.SendResult result = results.get(i);
+                if (result.isSent()) {
+                    onAcked.accept(entry, result.id());
+                } else {
+                    Log.warn("Send message rejected: " + result.error());
+                    onRejected.accept(entry);
+                }
+            }
+        }
+        synchronized (this) {
+            retryMillis = MIN_RETRY_MILLIS;
+        }
+    }
+
+    // Statuses /send_messages uses for a request it can never accept as sent: malformed (400),
+    // too many messages (413) or failing validation (422)
+    private static boolean isMessageFault(int statusCode) {
+        return statusCode == 400 || statusCode == 413 || statusCode == 422;
+    }
+
+    private void remove(List<Entry> entries) {
+        synchronized (this) {
+            for (Entry entry : entries) {
+                pending.remove(entry.clientId());
+            }
+        }
+        requestSave();
+    }
+
+    private synchronized void scheduleRetry(IOException e) {
+        Log.sampled(Log.Level.WARN, "outbox-retry", "Send message failed, retrying in " + retryMillis + " ms: " + e.getMessage());
+        if (retryScheduled) return;
+        retryScheduled = true;
+        long delay = retryMillis;
+        retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (this) {
+                retryScheduled = false;
+            }
+            flush();
+        });
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) return;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String clientId = "", receiverMobile = "", content = "";
+                long createdMillis = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "client_id" -> clientId = reader.nextString();
+                        case "receiver_mobile" -> receiverMobile = reader.nextString();
+                        case "content" -> content = reader.nextString();
+                        case "created" -> createdMillis = Long.parseLong(reader.nextString());
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                pending.put(clientId, new Entry(clientId, receiverMobile, content, createdMillis));
+            }
+            reader.endArray();
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Could not read outbox, unsent messages are lost: " + e.getMessage());
+        }
+    }
+
+    // Changes made while a save is queued ride along with it, since it reads the queue when it runs
+    private void requestSave() {
+        if (file == null) return;
+        synchronized (this) {
+            if (saveQueued) return;
+            saveQueued = true;
+        }
+        tasks.run(TaskScheduler.Category.STORAGE, this::save);
+    }
+
+    // Runs on the STORAGE queue, one at a time; the file is replaced atomically so a crash never truncates it
+    private void save() {
+        JsonWriter json = new JsonWriter().beginArray();
+        synchronized (this) {
+            saveQueued = false;
+            for (Entry entry : pending.values()) {
+                json.beginObject()
+                    .name("client_id").value(entry.clientId())
+                    .name("receiver_mobile").value(entry.receiverMobile())
+                    .name("content").value(entry.content())
+                    .name("created").value(entry.createdMillis())
+                    .endObject();
+            }
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, json.endArray().toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Could not save outbox: " + e.getMessage());
+        }
+    }
+}
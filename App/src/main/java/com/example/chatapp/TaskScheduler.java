@@ -0,0 +1,194 @@
+package com.example.chatapp;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runs the app's background work on virtual threads. Each category has its own concurrency
+// limit; tasks over the limit wait (parked, not holding an OS thread) and count towards that
+// category's queue depth. Tasks can be tagged with an owner, such as a chat panel, and
+// cancelled together when the owner goes away. Cancelling a task interrupts it.
+public class TaskScheduler {
+
+    public enum Category {
+        SYNC(1),      // message polls; also single-flighted
+        SEND(1),      // outbox flushes, in order
+        CONTACTS(4),  // username lookups
+        UPLOAD(2),
+        STORAGE(1),   // local store reads
+        SEARCH(1),
+        SETTINGS(1);
+
+        final int maxConcurrent;
+
+        Category(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("chat-task-", 0).factory());
+    private final Map<Category, Semaphore> permits = new EnumMap<>(Category.class);
+    private final Map<Category, AtomicInteger> queued = new EnumMap<>(Category.class);
+    private final Map<Category, AtomicInteger> running = new EnumMap<>(Category.class);
+    private final Map<Category, AtomicLong> completed = new EnumMap<>(Category.class);
+    private final Map<Object, Set<Task<?>>> tasksByOwner = new ConcurrentHashMap<>();
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    public TaskScheduler() {
+        for (Category category : Category.values()) {
+            permits.put(category, new Semaphore(category.maxConcurrent, true));
+            queued.put(category, new AtomicInteger());
+            running.put(category, new AtomicInteger());
+            completed.put(category, new AtomicLong());
+        }
+    }
+
+    public <T> Task<T> submit(Category category, Supplier<T> work) {
+        return submit(category, null, work);
+    }
+
+    public Task<Void> run(Category category, Runnable work) {
+        return run(category, null, work);
+    }
+
+    public Task<Void> run(Category category, Object owner, Runnable work) {
+        return submit(category, owner, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    // owner may be null; otherwise cancelAll(owner) cancels the task
+    public <T> Task<T> submit(Category category, Object owner, Supplier<T> work) {
+        return submit(category, owner, work, new Task<>());
+    }
+
+    private <T> Task<T> submit(Category category, Object owner, Supplier<T> work, Task<T> task) {
+        if (owner != null) {
+            tasksByOwner.computeIfAbsent(owner, k -> ConcurrentHashMap.newKeySet()).add(task);
+            task.whenComplete((result, error) -> {
+                Set<Task<?>> owned = tasksByOwner.get(owner);
+                if (owned != null) owned.remove(task);
+            });
+        }
+        queued.get(category).incrementAndGet();
+        executor.execute(() -> {
+            task.worker = Thread.currentThread();
+            boolean acquired = false;
+            try {
+                if (task.isDone()) return; // cancelled while waiting to start
+                permits.get(category).acquire();
+                acquired = true;
+                queued.get(category).decrementAndGet();
+                running.get(category).incrementAndGet();
+                task.complete(work.get());
+            } catch (InterruptedException e) {
+                task.cancel(false);
+            } catch (Throwable e) {
+                task.completeExceptionally(e);
+            } finally {
+                task.worker = null;
+                if (acquired) {
+                    running.get(category).decrementAndGet();
+                    permits.get(category).release();
+                    completed.get(category).incrementAndGet();
+                } else {
+                    queued.get(category).decrementAndGet();
+                }
+            }
+        });
+        return task;
+    }
+
+    // Runs work unless a run under the same key is already in flight. A call that arrives
+    // mid-flight isn't dropped: it makes the current flight run work once more when it
+    // finishes, so overlapping requests collapse into at most one extra run.
+    public Task<Void> singleFlight(String key, Category category, Runnable work) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight != null) {
+                flight.rerun.set(true);
+                // The flight may have checked rerun just before we set it; only trust it if still registered
+                if (flights.get(key) == flight) return flight.task;
+                continue;
+            }
+            Flight created = new Flight();
+            if (flights.putIfAbsent(key, created) != null) continue;
+            return submit(category, null, () -> {
+                try {
+                    do {
+                        created.rerun.set(false);
+                        try {
+                            work.run();
+                        } catch (RuntimeException e) {
+                            // Nobody reads the flight's future, and a rerun requested meanwhile still has to happen
+                            Log.warn("Task " + key + " failed", e);
+                        }
+                    } while (created.rerun.get());
+                } finally {
+                    flights.remove(key, created);
+                }
+                // A request landing between the last check and removal starts a new flight
+                if (created.rerun.get()) singleFlight(key, category, work);
+                return null;
+            }, created.task);
+        }
+    }
+
+    public void cancelAll(Object owner) {
+        Set<Task<?>> owned = tasksByOwner.remove(owner);
+        if (owned != null) {
+            owned.forEach(task -> task.cancel(true));
+        }
+    }
+
+    public int queueDepth(Category category) {
+        return queued.get(category).get();
+    }
+
+    public int running(Category category) {
+        return running.get(category).get();
+    }
+
+    public long completed(Category category) {
+        return completed.get(category).get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("TaskScheduler[");
+        for (Category category : Category.values()) {
+            if (category.ordinal() > 0) out.append(", ");
+            out.append(category).append(": queued=").append(queueDepth(category))
+                .append(" running=").append(running(category))
+                .append(" done=").append(completed(category));
+        }
+        return out.append(']').toString();
+    }
+
+    public static class Task<T> extends CompletableFuture<T> {
+        private volatile Thread worker;
+
+        // Unlike a plain CompletableFuture, cancelling also interrupts the task's thread
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Thread thread = worker;
+            if (cancelled && mayInterruptIfRunning && thread != null) {
+                thread.interrupt();
+            }
+            return cancelled;
+        }
+    }
+
+    private static class Flight {
+        final AtomicBoolean rerun = new AtomicBoolean();
+        final Task<Void> task = new Task<>();
+    }
+}
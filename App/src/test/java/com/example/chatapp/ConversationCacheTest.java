@@ -0,0 +1,72 @@
+package com.example.chatapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationCacheTest {
+    private final List<String> evicted = new ArrayList<>();
+
+    private ConversationCache<List<String>> cache(int maxEntries, long maxWeight) {
+        return new ConversationCache<>(maxEntries, maxWeight, List::size, (key, value) -> evicted.add(key));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOnlyOnTrim() {
+        ConversationCache<List<String>> cache = cache(2, 100);
+        cache.put("a", List.of("1"));
+        cache.put("b", List.of("1"));
+        cache.put("c", List.of("1"));
+        assertEquals(3, cache.size());
+
+        cache.get("a");
+        cache.trim();
+        assertEquals(List.of("b"), evicted);
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void evictsUntilUnderMaxWeight() {
+        ConversationCache<List<String>> cache = cache(10, 5);
+        cache.put("a", List.of("1", "2", "3"));
+        cache.put("b", List.of("1", "2"));
+        cache.put("c", List.of("1", "2"));
+        cache.trim();
+        assertEquals(List.of("a"), evicted);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void neverEvictsPinnedEntry() {
+        ConversationCache<List<String>> cache = cache(1, 100);
+        cache.put("open", List.of("1"));
+        cache.put("b", List.of("1"));
+        cache.put("c", List.of("1"));
+        cache.pin("open");
+        cache.trim();
+        assertEquals(List.of("b", "c"), evicted);
+        assertTrue(cache.contains("open"));
+
+        cache.put("next", List.of("1"));
+        cache.pin("next");
+        cache.trim();
+        assertEquals(List.of("b", "c", "open"), evicted);
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        ConversationCache<List<String>> cache = cache(4, 100);
+        cache.put("a", List.of());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertFalse(cache.contains("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
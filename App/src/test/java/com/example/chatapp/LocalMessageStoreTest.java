@@ -0,0 +1,201 @@
+package com.example.chatapp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalMessageStoreTest {
+    private static final String OWNER = "9000000001";
+
+    @TempDir
+    Path dataDir;
+
+    @BeforeEach
+    void useTempDataDir() {
+        System.setProperty("chatapp.dataDir", dataDir.toString());
+    }
+
+    @AfterEach
+    void clearDataDir() {
+        System.clearProperty("chatapp.dataDir");
+    }
+
+    @Test
+    void reopensWithHistoryAndConversationPages() throws IOException {
+        try (LocalMessageStore store = open()) {
+            store.append(messages(0, 30));
+            store.setSyncCursor("cursor-30");
+        }
+        try (LocalMessageStore store = open()) {
+            assertEquals(ids(0, 30), idsOf(store.readAll()));
+            assertEquals("cursor-30", store.getSyncCursor());
+            assertEquals(List.of("c0", "c1", "c2"), store.getContactMobiles());
+            assertEquals(10, store.conversationSize("c1"));
+            assertEquals(List.of("m22", "m25", "m28"), idsOf(store.readConversation("c1", 7, 10)));
+            assertTrue(store.contains("m29"));
+        }
+    }
+
+    @Test
+    void skipsMessagesAlreadyStored() throws IOException {
+        try (LocalMessageStore store = open()) {
+            store.append(messages(0, 10));
+            store.append(messages(5, 15));
+            assertEquals(ids(0, 15), idsOf(store.readAll()));
+        }
+    }
+
+    // A crash mid-append leaves a partial record after the last one the index knows about
+    @Test
+    void dropsTornTailAndKeepsAppending() throws IOException {
+        try (LocalMessageStore store = open()) {
+            store.append(messages(0, 5));
+        }
+        Path segment = lastSegment();
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            out.write(ByteBuffer.allocate(12).putInt(200).putInt(0x1234).putInt(7).flip()); // length past the end
+        }
+        try (LocalMessageStore store = open()) {
+            assertEquals(ids(0, 5), idsOf(store.readAll()));
+            store.append(messages(5, 8));
+        }
+        try (LocalMessageStore store = open()) {
+            assertEquals(ids(0, 8), idsOf(store.readAll()));
+        }
+    }
+
+    @Test
+    void dropsRecordWithBadChecksumWhenRebuildingIndex() throws IOException {
+        try (LocalMessageStore store = open()) {
+            store.append(messages(0, 5));
+        }
+        Path segment = lastSegment();
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            long size = file.size();
+            file.write(ByteBuffer.wrap(new byte[] {0x55}), size - 1); // Last byte of the last record
+        }
+        deleteIndex();
+        try (LocalMessageStore store = open()) {
+            assertEquals(ids(0, 4), idsOf(store.readAll()));
+            assertFalse(store.contains("m4"));
+        }
+    }
+
+    @Test
+    void compactsSmallSegmentsKeepingOrder() throws IOException {
+        writeShortSessions(5);
+        assertEquals(5, segments().size());
+        try (LocalMessageStore store = open()) {
+            store.compact();
+            assertEquals(List.of("segment-00000001-00000005.log", "segment-00000006.log"), segmentNames());
+            assertEquals(ids(0, 50), idsOf(store.readAll()));
+            store.append(messages(50, 55));
+        }
+        try (LocalMessageStore store = open()) {
+            assertEquals(ids(0, 55), idsOf(store.readAll()));
+            assertEquals(18, store.conversationSize("c1"));
+        }
+    }
+
+    @Test
+    void leavesFewSmallSegmentsAlone() throws IOException {
+        writeShortSessions(3);
+        try (LocalMessageStore store = open()) {
+            store.compact();
+            assertEquals(4, segments().size());
+        }
+    }
+
+    // A compaction cut off after moving the merged file into place leaves the segments it
+    // replaced and an index pointing into them; the next open must drop both
+    @Test
+    void recoversFromInterruptedCompaction() throws IOException {
+        writeShortSessions(4);
+        Map<Path, byte[]> before = new HashMap<>();
+        try (Stream<Path> files = Files.list(storeDir())) {
+            for (Path file : files.toList()) before.put(file, Files.readAllBytes(file));
+        }
+        try (LocalMessageStore store = open()) {
+            store.compact();
+        }
+        for (Map.Entry<Path, byte[]> file : before.entrySet()) {
+            Files.write(file.getKey(), file.getValue());
+        }
+        try (LocalMessageStore store = open()) {
+            assertEquals(List.of("segment-00000001-00000004.log", "segment-00000005.log"), segmentNames());
+            assertEquals(ids(0, 40), idsOf(store.readAll()));
+            assertEquals(14, store.conversationSize("c0"));
+        }
+    }
+
+    // Background compaction is off, so each session leaves exactly one small segment behind
+    private static void writeShortSessions(int count) throws IOException {
+        for (int session = 0; session < count; session++) {
+            try (LocalMessageStore store = open()) {
+                store.append(messages(session * 10, session * 10 + 10));
+            }
+        }
+    }
+
+    private static LocalMessageStore open() throws IOException {
+        return LocalMessageStore.open(OWNER, false);
+    }
+
+    private static List<ChatMessage> messages(int from, int to) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            String contact = "c" + (i % 3);
+            boolean sent = i % 2 == 0;
+            messages.add(new ChatMessage("m" + i, sent ? OWNER : contact, sent ? contact : OWNER, "message " + i,
+                "2025-01-01 10:00:00", false, "", 0, "", "", ""));
+        }
+        return messages;
+    }
+
+    private static List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<>();
+        for (int i = from; i < to; i++) ids.add("m" + i);
+        return ids;
+    }
+
+    private static List<String> idsOf(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::id).toList();
+    }
+
+    private Path storeDir() {
+        return dataDir.resolve(OWNER);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(storeDir())) {
+            return files.filter(file -> file.getFileName().toString().matches("segment-[\\d-]+\\.log")).sorted().toList();
+        }
+    }
+
+    private List<String> segmentNames() throws IOException {
+        return segments().stream().map(file -> file.getFileName().toString()).toList();
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+
+    private void deleteIndex() throws IOException {
+        Files.deleteIfExists(storeDir().resolve("index.dat"));
+        Files.deleteIfExists(storeDir().resolve("index.journal"));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.chatapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageIdSetTest {
+
+    @Test
+    void addsFindsAndRemovesIds() {
+        MessageIdSet ids = new MessageIdSet();
+        assertTrue(ids.add("a1"));
+        assertFalse(ids.add("a1"));
+        assertTrue(ids.contains("a1"));
+        assertFalse(ids.contains("a2"));
+        assertTrue(ids.remove("a1"));
+        assertFalse(ids.remove("a1"));
+        assertFalse(ids.contains("a1"));
+        assertEquals(0, ids.size());
+    }
+
+    // Random adds and removes over a small key space keep probe runs long, so backward-shift
+    // deletion, growth and arena compaction all run many times
+    @Test
+    void matchesHashSetUnderRandomAddsAndRemoves() {
+        MessageIdSet ids = new MessageIdSet(16);
+        Set<String> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            String id = "msg-" + random.nextInt(3000);
+            switch (random.nextInt(3)) {
+                case 0 -> assertEquals(expected.add(id), ids.add(id), id);
+                case 1 -> assertEquals(expected.remove(id), ids.remove(id), id);
+                default -> assertEquals(expected.contains(id), ids.contains(id), id);
+            }
+        }
+        assertEquals(expected.size(), ids.size());
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(expected.contains("msg-" + i), ids.contains("msg-" + i));
+        }
+    }
+
+    @Test
+    void keepsNonAsciiAndLongIdsApart() {
+        MessageIdSet ids = new MessageIdSet();
+        String longId = "x".repeat(300);
+        ids.add("café");
+        ids.add("日本語");
+        ids.add(longId);
+        assertTrue(ids.contains("café"));
+        assertFalse(ids.contains("cafe"));
+        assertTrue(ids.contains("日本語"));
+        assertTrue(ids.contains(longId));
+        assertFalse(ids.contains("x".repeat(299)));
+    }
+
+    @Test
+    void forEachVisitsEveryIdOnce() {
+        MessageIdSet ids = new MessageIdSet();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = i % 10 == 0 ? "ü-" + i : "id-" + i;
+            ids.add(id);
+            expected.add(id);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            ids.remove("id-" + i);
+            expected.remove("id-" + i);
+        }
+        Set<String> visited = new HashSet<>();
+        ids.forEach(id -> assertTrue(visited.add(id), id));
+        assertEquals(expected, visited);
+    }
+
+    // Server ids are 20 characters; as a HashSet<String> they take over 100 bytes each
+    @Test
+    void staysCompactPerId() {
+        MessageIdSet ids = new MessageIdSet();
+        Random random = new Random(7);
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            StringBuilder id = new StringBuilder(20);
+            for (int j = 0; j < 20; j++) id.append((char) ('a' + random.nextInt(26)));
+            ids.add(id.toString());
+        }
+        double bytesPerId = (double) ids.footprintBytes() / count;
+        assertTrue(bytesPerId < 72, "footprint " + bytesPerId + " bytes per id");
+    }
+}
@@ -0,0 +1,416 @@
+# In-memory stand-in for the subset of the Firestore client that main.py uses, so the
+# backend can run locally and under load tests without Firebase. Start the server with
+# CHATAPP_FAKE_STORE=1 to use it. Data lives only as long as the process.
+#
+# Like Firestore, writes get a commit timestamp (SERVER_TIMESTAMP is resolved to it), and
+# batches commit all-or-nothing under a single timestamp. Documents are copied in and out,
+# so callers never share state with the store.
+#
+# Queries are answered from per-field indexes rather than by scanning the collection, so load
+# tests against the stand-in measure the server. Only writes take the lock: they replace
+# documents and index entries instead of changing them in place, so a query reads whatever
+# was current when it looked, as a Firestore read outside a transaction would.
+import bisect
+import random
+import string
+import threading
+from datetime import datetime, timedelta, timezone
+
+SERVER_TIMESTAMP = object()
+
+
+class Query:
+    ASCENDING = 'ASCENDING'
+    DESCENDING = 'DESCENDING'
+
+    def __init__(self, client, path, filters=(), orders=(), limit=None, fields=None, start_after=None,
+                 end_before=None):
+        self._client = client
+        self._path = path
+        self._filters = tuple(filters)
+        self._orders = tuple(orders)
+        self._limit = limit
+        self._fields = fields
+        self._start_after = start_after
+        self._end_before = end_before
+
+    def _copy(self, **changes):
+        args = dict(filters=self._filters, orders=self._orders, limit=self._limit,
+                    fields=self._fields, start_after=self._start_after, end_before=self._end_before)
+        args.update(changes)
+        return Query(self._client, self._path, **args)
+
+    def where(self, field, op, value):
+        if op not in _OPERATORS:
+            raise ValueError(f"Unsupported operator {op}")
+        return self._copy(filters=self._filters + ((field, op, value),))
+
+    def order_by(self, field, direction=ASCENDING):
+        return self._copy(orders=self._orders + ((field, direction),))
+
+    def limit(self, count):
+        return self._copy(limit=count)
+
+    def select(self, fields):
+        return self._copy(fields=list(fields))
+
+    def start_after(self, document):
+        # A snapshot of the last document already seen, or a dict of its order_by field values
+        return self._copy(start_after=_cursor(document))
+
+    def end_before(self, document):
+        return self._copy(end_before=_cursor(document))
+
+    def stream(self):
+        return iter(self.get())
+
+    def get(self):
+        docs = self._client._collections.get(self._path, {})
+        candidates, ordered = self._candidates(docs)
+        matches = []
+        for doc_id in candidates:
+            data = docs.get(doc_id)
+            if data is None or not all(_OPERATORS[op](data.get(field), value) for field, op, value in self._filters):
+                continue
+            # Documents missing an ordered field are left out, as in Firestore
+            if not all(field in data for field, _ in self._orders):
+                continue
+            item = (doc_id, data)
+            if self._start_after is not None and _compare(item, self._orders, self._start_after) <= 0:
+                continue
+            if self._end_before is not None and _compare(item, self._orders, self._end_before) >= 0:
+                continue
+            matches.append(item)
+            if ordered and self._limit is not None and len(matches) == self._limit:
+                break
+        if not ordered:
+            # Ties are broken by document id, in the direction of the last ordering
+            last_direction = self._orders[-1][1] if self._orders else Query.ASCENDING
+            matches.sort(key=lambda item: item[0], reverse=last_direction == Query.DESCENDING)
+            for field, direction in reversed(self._orders):
+                matches.sort(key=lambda item: _sort_key(item[1][field]), reverse=direction == Query.DESCENDING)
+            if self._limit is not None:
+                matches = matches[:self._limit]
+        return [DocumentSnapshot(DocumentReference(self._client, self._path, doc_id), data, self._fields)
+                for doc_id, data in matches]
+
+    # The ids worth checking, and whether they already come in query order. An equality or
+    # array_contains filter narrows to one index bucket; with a single order_by, the bucket's
+    # ids sorted by that field are used, cut down to the range the filters and cursors allow.
+    def _candidates(self, docs):
+        bucket_filters = [(field, value) for field, op, value in self._filters if op in ('==', 'array_contains')]
+        if bucket_filters:
+            indexes = [(self._client._index(self._path, field), value) for field, value in bucket_filters]
+            index, value = min(indexes, key=lambda entry: len(entry[0].ids(entry[1])))
+            if len(self._orders) == 1:
+                return self._ordered_range(index.sorted_ids(value, self._orders[0][0])), True
+            return index.ids(value), False
+        for field, op, values in self._filters:
+            if op == 'in':
+                index = self._client._index(self._path, field)
+                return dict.fromkeys(doc_id for value in values for doc_id in index.ids(value)), False
+        return list(docs), False
+
+    def _ordered_range(self, entries):
+        field, direction = self._orders[0]
+        lo, hi = 0, len(entries)
+        for filter_field, op, value in self._filters:
+            if filter_field != field:
+                continue
+            if op in ('>=', '>'):
+                lo = max(lo, _bound(entries, value, None, after=op == '>'))
+            elif op in ('<', '<='):
+                hi = min(hi, _bound(entries, value, None, after=op == '<='))
+        descending = direction == Query.DESCENDING
+        # Cursors bound in query order: after the start, before the end
+        for cursor, is_start in ((self._start_after, True), (self._end_before, False)):
+            if cursor is None or field not in cursor[0]:
+                continue
+            bound, bound_id = cursor
+            if is_start != descending:
+                lo = max(lo, _bound(entries, bound[field], bound_id, after=True))
+            else:
+                hi = min(hi, _bound(entries, bound[field], bound_id, after=False))
+        selected = entries[lo:hi]
+        return [doc_id for _, doc_id in (reversed(selected) if descending else selected)]
+
+
+class CollectionReference(Query):
+    def __init__(self, client, path):
+        super().__init__(client, path)
+        self.id = path.rsplit('/', 1)[-1]
+
+    def document(self, doc_id=None):
+        return DocumentReference(self._client, self._path, doc_id or _auto_id())
+
+    def add(self, data):
+        ref = self.document()
+        result = ref.set(data)
+        return result.update_time, ref
+
+
+class DocumentReference:
+    def __init__(self, client, collection_path, doc_id):
+        self._client = client
+        self._collection_path = collection_path
+        self.id = doc_id
+        self.path = f"{collection_path}/{doc_id}"
+
+    def collection(self, name):
+        return CollectionReference(self._client, f"{self.path}/{name}")
+
+    def get(self):
+        data = self._client._collections.get(self._collection_path, {}).get(self.id)
+        return DocumentSnapshot(self, data)
+
+    def set(self, data, merge=False):
+        batch = self._client.batch()
+        batch.set(self, data, merge=merge)
+        return batch.commit()[0]
+
+    def update(self, data):
+        batch = self._client.batch()
+        batch.update(self, data)
+        return batch.commit()[0]
+
+    def delete(self):
+        batch = self._client.batch()
+        batch.delete(self)
+        return batch.commit()[0]
+
+
+class DocumentSnapshot:
+    def __init__(self, reference, data, fields=None):
+        self.reference = reference
+        self.id = reference.id
+        self.exists = data is not None
+        if data is not None and fields is not None:
+            data = {field: data[field] for field in fields if field in data}
+        self._data = dict(data) if data is not None else None
+
+    def to_dict(self):
+        return dict(self._data) if self._data is not None else None
+
+    def get(self, field):
+        if self._data is None:
+            raise KeyError(field)
+        return self._data.get(field)
+
+
+class WriteResult:
+    def __init__(self, update_time):
+        self.update_time = update_time
+
+
+class WriteBatch:
+    def __init__(self, client):
+        self._client = client
+        self._writes = []
+
+    def set(self, ref, data, merge=False):
+        self._writes.append(('set_merge' if merge else 'set', ref, dict(data)))
+        return self
+
+    def create(self, ref, data):
+        self._writes.append(('create', ref, dict(data)))
+        return self
+
+    def update(self, ref, data):
+        self._writes.append(('update', ref, dict(data)))
+        return self
+
+    def delete(self, ref):
+        self._writes.append(('delete', ref, None))
+        return self
+
+    def commit(self):
+        client = self._client
+        with client._lock:
+            commit_time = client._next_timestamp()
+            # Check everything first so a failing write leaves nothing applied
+            for kind, ref, _ in self._writes:
+                exists = ref.id in client._collections.get(ref._collection_path, {})
+                if kind == 'create' and exists:
+                    raise AlreadyExists(ref.path)
+                if kind == 'update' and not exists:
+                    raise NotFound(ref.path)
+            for kind, ref, data in self._writes:
+                docs = client._collections.setdefault(ref._collection_path, {})
+                old = docs.get(ref.id)
+                if kind == 'delete':
+                    docs.pop(ref.id, None)
+                    new = None
+                else:
+                    data = {key: commit_time if value is SERVER_TIMESTAMP else value for key, value in data.items()}
+                    new = dict(old, **data) if kind in ('update', 'set_merge') and old is not None else data
+                    docs[ref.id] = new
+                for index in client._indexes.get(ref._collection_path, {}).values():
+                    index.replace(ref.id, old, new)
+            return [WriteResult(commit_time) for _ in self._writes]
+
+
+class Client:
+    def __init__(self):
+        self._lock = threading.RLock()
+        self._collections = {}  # collection path -> {document id -> data}, in insertion order
+        self._indexes = {}  # collection path -> {field -> _Index}, built on first query
+        self._last_timestamp = datetime.fromtimestamp(0, timezone.utc)
+
+    def collection(self, name):
+        return CollectionReference(self, name)
+
+    def batch(self):
+        return WriteBatch(self)
+
+    def get_all(self, references, field_paths=None):
+        return [DocumentSnapshot(ref, self._collections.get(ref._collection_path, {}).get(ref.id), field_paths)
+                for ref in references]
+
+    def _index(self, path, field):
+        index = self._indexes.get(path, {}).get(field)
+        if index is None:
+            with self._lock:
+                indexes = self._indexes.setdefault(path, {})
+                index = indexes.get(field)
+                if index is None:
+                    index = _Index(field, self._collections.setdefault(path, {}), self._lock)
+                    indexes[field] = index
+        return index
+
+    def _next_timestamp(self):
+        # Commit times strictly increase, even when the clock doesn't, so cursors stay ordered
+        now = datetime.now(timezone.utc)
+        self._last_timestamp = max(now, self._last_timestamp + timedelta(microseconds=1))
+        return self._last_timestamp
+
+
+class _Index:
+    # A collection's document ids by the value of one field; a list field is indexed under each
+    # element, which is what array_contains matches. Buckets, and each bucket's ids sorted by a
+    # field a query orders on, are tuples replaced on every write, so readers need no lock.
+    def __init__(self, field, docs, lock):
+        self._field = field
+        self._docs = docs
+        self._lock = lock
+        self._buckets = {}  # value -> ids, in insertion order
+        self._sorted = {}  # value -> {order field -> ((sort key, id), ...)}
+        for doc_id, data in docs.items():
+            self.replace(doc_id, None, data)
+
+    def ids(self, value):
+        return self._buckets.get(value, ()) if _hashable(value) else ()
+
+    def sorted_ids(self, value, order_field):
+        if not _hashable(value):
+            return ()
+        entries = self._sorted.get(value, {}).get(order_field)
+        if entries is None:
+            # Built under the lock so no write slips in between reading the bucket and publishing it
+            with self._lock:
+                orders = self._sorted.setdefault(value, {})
+                entries = orders.get(order_field)
+                if entries is None:
+                    docs = self._docs
+                    entries = tuple(sorted((_sort_key(docs[doc_id][order_field]), doc_id)
+                                           for doc_id in self.ids(value) if order_field in docs[doc_id]))
+                    orders[order_field] = entries
+        return entries
+
+    # Called by writes, with the lock held
+    def replace(self, doc_id, old, new):
+        for value in self._values(old):
+            self._buckets[value] = tuple(i for i in self._buckets[value] if i != doc_id)
+            orders = self._sorted.get(value, {})
+            for order_field, entries in list(orders.items()):
+                orders[order_field] = tuple(entry for entry in entries if entry[1] != doc_id)
+        for value in self._values(new):
+            self._buckets[value] = self._buckets.get(value, ()) + (doc_id,)
+            orders = self._sorted.get(value, {})
+            for order_field, entries in list(orders.items()):
+                if order_field in new:
+                    updated = list(entries)
+                    bisect.insort(updated, (_sort_key(new[order_field]), doc_id))
+                    orders[order_field] = tuple(updated)
+
+    def _values(self, data):
+        if data is None or self._field not in data:
+            return []
+        value = data[self._field]
+        values = value if isinstance(value, list) else [value]
+        return [v for v in dict.fromkeys(v for v in values if _hashable(v))]
+
+
+class AlreadyExists(Exception):
+    pass
+
+
+class NotFound(Exception):
+    pass
+
+
+def client():
+    return Client()
+
+
+def _auto_id():
+    return ''.join(random.choices(string.ascii_letters + string.digits, k=20))
+
+
+def _sort_key(value):
+    # Firestore orders values of different types by type first
+    return (type(value).__name__, value)
+
+
+def _hashable(value):
+    try:
+        hash(value)
+        return True
+    except TypeError:
+        return False
+
+
+def _bound(entries, value, doc_id, after):
+    # Position in sorted (sort key, id) entries just past (after) or just before the given
+    # value and id; without an id, past or before every document with that value
+    key = _sort_key(value)
+    if doc_id is None:
+        return bisect.bisect_right(entries, (key, _MAX_ID)) if after else bisect.bisect_left(entries, (key,))
+    return bisect.bisect_right(entries, (key, doc_id)) if after else bisect.bisect_left(entries, (key, doc_id))
+
+
+_MAX_ID = '\U0010ffff'
+
+
+def _cursor(document):
+    if isinstance(document, DocumentSnapshot):
+        return document.to_dict(), document.id
+    return document, None
+
+
+def _compare(item, orders, cursor):
+    # Where item falls relative to the cursor in query order: negative before, positive after
+    doc_id, data = item
+    bound, bound_id = cursor
+    for field, direction in orders:
+        value, limit = _sort_key(data[field]), _sort_key(bound[field])
+        if value != limit:
+            after = value > limit if direction == Query.ASCENDING else value < limit
+            return 1 if after else -1
+    if bound_id is None or doc_id == bound_id:
+        return 0
+    last_direction = orders[-1][1] if orders else Query.ASCENDING
+    after = doc_id > bound_id if last_direction == Query.ASCENDING else doc_id < bound_id
+    return 1 if after else -1
+
+
+_OPERATORS = {
+    '==': lambda value, target: value == target,
+    '!=': lambda value, target: value is not None and value != target,
+    '<': lambda value, target: value is not None and value < target,
+    '<=': lambda value, target: value is not None and value <= target,
+    '>': lambda value, target: value is not None and value > target,
+    '>=': lambda value, target: value is not None and value >= target,
+    'in': lambda value, targets: value in targets,
+    'array_contains': lambda value, target: isinstance(value, list) and target in value,
+    'array_contains_any': lambda value, targets: isinstance(value, list) and any(t in value for t in targets),
+}
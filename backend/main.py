@@ -1,38 +1,50 @@
-from fastapi import FastAPI, WebSocket, WebSocketDisconnect, HTTPException, Body, File, UploadFile
+from fastapi import FastAPI, WebSocket, WebSocketDisconnect, HTTPException, Body, File, UploadFile, Response, Request
+from fastapi.responses import StreamingResponse
 from fastapi.middleware.cors import CORSMiddleware
-from firebase_admin import credentials, firestore, initialize_app, storage
+from fastapi.concurrency import run_in_threadpool
+from anyio import from_thread
 from pydantic import BaseModel
-from typing import Optional
+from typing import List, Optional
+from datetime import datetime
 import json
 import os
 import base64
+import hashlib
+import mimetypes
 from dotenv import load_dotenv
 
 load_dotenv()
 
-# Initialize Firebase from environment variables
-firebase_config = {
-    "type": os.getenv("FIREBASE_TYPE"),
-    "project_id": os.getenv("FIREBASE_PROJECT_ID"),
-    "private_key_id": os.getenv("FIREBASE_PRIVATE_KEY_ID"),
-    "private_key": os.getenv("FIREBASE_PRIVATE_KEY").replace("\\n", "\n") if os.getenv("FIREBASE_PRIVATE_KEY") else None,
-    "client_email": os.getenv("FIREBASE_CLIENT_EMAIL"),
-    "client_id": os.getenv("FIREBASE_CLIENT_ID"),
-    "auth_uri": os.getenv("FIREBASE_AUTH_URI"),
-    "token_uri": os.getenv("FIREBASE_TOKEN_URI"),
-    "auth_provider_x509_cert_url": os.getenv("FIREBASE_AUTH_PROVIDER_X509_CERT_URL"),
-    "client_x509_cert_url": os.getenv("FIREBASE_CLIENT_X509_CERT_URL"),
-    "universe_domain": os.getenv("FIREBASE_UNIVERSE_DOMAIN")
-}
-
-if all(firebase_config.values()):
-    cred = credentials.Certificate(firebase_config)
-    initialize_app(cred)
+if os.getenv("CHATAPP_FAKE_STORE") == "1":
+    # In-memory stand-in for local runs and load tests; nothing touches Firebase
+    import fake_store as firestore
     db = firestore.client()
 else:
-    # Fallback for demo
-    initialize_app()
-    db = firestore.client()
+    from firebase_admin import credentials, firestore, initialize_app
+
+    # Initialize Firebase from environment variables
+    firebase_config = {
+        "type": os.getenv("FIREBASE_TYPE"),
+        "project_id": os.getenv("FIREBASE_PROJECT_ID"),
+        "private_key_id": os.getenv("FIREBASE_PRIVATE_KEY_ID"),
+        "private_key": os.getenv("FIREBASE_PRIVATE_KEY").replace("\\n", "\n") if os.getenv("FIREBASE_PRIVATE_KEY") else None,
+        "client_email": os.getenv("FIREBASE_CLIENT_EMAIL"),
+        "client_id": os.getenv("FIREBASE_CLIENT_ID"),
+        "auth_uri": os.getenv("FIREBASE_AUTH_URI"),
+        "token_uri": os.getenv("FIREBASE_TOKEN_URI"),
+        "auth_provider_x509_cert_url": os.getenv("FIREBASE_AUTH_PROVIDER_X509_CERT_URL"),
+        "client_x509_cert_url": os.getenv("FIREBASE_CLIENT_X509_CERT_URL"),
+        "universe_domain": os.getenv("FIREBASE_UNIVERSE_DOMAIN")
+    }
+
+    if all(firebase_config.values()):
+        cred = credentials.Certificate(firebase_config)
+        initialize_app(cred)
+        db = firestore.client()
+    else:
+        # Fallback for demo
+        initialize_app()
+        db = firestore.client()
 
 app = FastAPI()
 
@@ -56,6 +68,37 @@ class MessageCreate(BaseModel):
     sender_mobile: str
     receiver_mobile: str
     content: str
+    client_id: Optional[str] = None  # Generated by the client so retried sends aren't stored twice
+
+class OutgoingMessage(BaseModel):
+    receiver_mobile: str
+    content: str
+    client_id: Optional[str] = None
+
+class MessageBatchCreate(BaseModel):
+    sender_mobile: str
+    messages: List[OutgoingMessage]
+
+class UserLookup(BaseModel):
+    mobiles: List[str]
+
+class UploadCreate(BaseModel):
+    sender_mobile: str
+    receiver_mobile: str
+    file_name: str
+    file_size: int
+
+# Uploads arrive as fixed-size binary chunks, each stored as its own document
+# (Firestore caps documents at 1 MiB), so neither side holds the whole file.
+UPLOAD_CHUNK_SIZE = 512 * 1024
+MAX_UPLOAD_SIZE = 100 * 1024 * 1024
+
+# Firestore allows 500 writes per batch and 30 values per 'in' filter
+MAX_SEND_BATCH = 100
+MAX_IN_VALUES = 30
+
+SYNC_PAGE_LIMIT = 500
+HISTORY_PAGE_LIMIT = 200
 
 @app.get("/")
 def read_root():
@@ -97,36 +140,120 @@ def login(data: UserLogin):
 
 @app.get("/user/{mobile}")
 def get_user(mobile: str):
-    user_ref = db.collection('users').document(mobile)
-    user_doc = user_ref.get()
-    if not user_doc.exists:
+    user_doc = db.collection('users').document(mobile).get()
+    return user_info(mobile, user_doc.to_dict() if user_doc.exists else None)
+
+@app.post("/users")
+def get_users(data: UserLookup):
+    # One get_all round trip for every contact a client needs names for
+    mobiles = list(dict.fromkeys(data.mobiles))
+    found = existing_users(mobiles)
+    return [user_info(mobile, found.get(mobile)) for mobile in mobiles]
+
+def user_info(mobile, user_data):
+    if user_data is None:
         return {"mobile": mobile, "username": mobile, "about": ""}
-    user_data = user_doc.to_dict()
     return {
         "mobile": user_data['mobile'], 
         "username": user_data.get('username', mobile),
         "about": user_data.get('about', 'Hey there! I am using Chat App')
     }
 
+def existing_users(mobiles):
+    refs = [db.collection('users').document(mobile) for mobile in set(mobiles)]
+    return {snap.id: snap.to_dict() for snap in db.get_all(refs) if snap.exists}
+
+def sent_by_client_id(sender_mobile, client_ids):
+    # Ids of messages already stored for these client ids: retries of sends whose response was lost
+    client_ids = list(dict.fromkeys(client_id for client_id in client_ids if client_id))
+    stored = {}
+    for start in range(0, len(client_ids), MAX_IN_VALUES):
+        query = (db.collection('messages')
+                 .where('sender_mobile', '==', sender_mobile)
+                 .where('client_id', 'in', client_ids[start:start + MAX_IN_VALUES])
+                 .select(['client_id']))
+        for doc in query.stream():
+            stored[doc.get('client_id')] = doc.id
+    return stored
+
+def conversation_id(mobile_a, mobile_b):
+    # The same id from either side, so a conversation's messages share one indexed key
+    return '_'.join(sorted([mobile_a, mobile_b]))
+
+def conversation_fields(sender_mobile, receiver_mobile):
+    # participants lets one array-contains query find all of a user's messages
+    return {
+        'conversation_id': conversation_id(sender_mobile, receiver_mobile),
+        'participants': sorted({sender_mobile, receiver_mobile})
+    }
+
+def new_message(sender_mobile, receiver_mobile, content, client_id):
+    message_data = {
+        'sender_mobile': sender_mobile,
+        'receiver_mobile': receiver_mobile,
+        'content': content,
+        'timestamp': firestore.SERVER_TIMESTAMP,
+        'is_file': False,
+        **conversation_fields(sender_mobile, receiver_mobile)
+    }
+    if client_id:
+        message_data['client_id'] = client_id
+    return message_data
+
 @app.post("/send_message")
 def send_message(data: MessageCreate):
-    sender_ref = db.collection('users').document(data.sender_mobile)
-    receiver_ref = db.collection('users').document(data.receiver_mobile)
-    if not sender_ref.get().exists or not receiver_ref.get().exists:
+    users = existing_users([data.sender_mobile, data.receiver_mobile])
+    if data.sender_mobile not in users or data.receiver_mobile not in users:
         raise HTTPException(status_code=404, detail="User not found")
     
-    message_data = {
-        'sender_mobile': data.sender_mobile,
-        'receiver_mobile': data.receiver_mobile,
-        'content': data.content,
-        'timestamp': firestore.SERVER_TIMESTAMP,
-        'is_file': False
-    }
-    db.collection('messages').add(message_data)
-    return {"status": "Message sent"}
+    if data.client_id:
+        stored = sent_by_client_id(data.sender_mobile, [data.client_id])
+        if data.client_id in stored:
+            return {"status": "Message sent", "id": stored[data.client_id], "client_id": data.client_id}
+    
+    message_data = new_message(data.sender_mobile, data.receiver_mobile, data.content, data.client_id)
+    update_time, doc_ref = db.collection('messages').add(message_data)
+    # Sync endpoints run in the threadpool; hop onto the event loop to push
+    from_thread.run(push_message, stored_message(doc_ref.id, message_data, update_time))
+    return {"status": "Message sent", "id": doc_ref.id, "client_id": data.client_id}
+
+@app.post("/send_messages")
+def send_messages(data: MessageBatchCreate):
+    # Writes a client's queued messages in one batch. Each gets a result in request order:
+    # its id, or an error if that message alone was rejected.
+    if len(data.messages) > MAX_SEND_BATCH:
+        raise HTTPException(status_code=413, detail=f"At most {MAX_SEND_BATCH} messages per batch")
+    users = existing_users([data.sender_mobile] + [msg.receiver_mobile for msg in data.messages])
+    if data.sender_mobile not in users:
+        raise HTTPException(status_code=404, detail="User not found")
+    stored = sent_by_client_id(data.sender_mobile, [msg.client_id for msg in data.messages])
+    
+    batch = db.batch()
+    written = []
+    results = []
+    for msg in data.messages:
+        if msg.receiver_mobile not in users:
+            results.append({"client_id": msg.client_id, "error": "User not found"})
+            continue
+        if msg.client_id in stored:
+            results.append({"client_id": msg.client_id, "id": stored[msg.client_id]})
+            continue
+        doc_ref = db.collection('messages').document()
+        message_data = new_message(data.sender_mobile, msg.receiver_mobile, msg.content, msg.client_id)
+        batch.set(doc_ref, message_data)
+        written.append((doc_ref, message_data))
+        if msg.client_id:
+            stored[msg.client_id] = doc_ref.id  # The same message twice in one batch
+        results.append({"client_id": msg.client_id, "id": doc_ref.id})
+    
+    if written:
+        write_results = batch.commit()
+        for (doc_ref, message_data), write_result in zip(written, write_results):
+            from_thread.run(push_message, stored_message(doc_ref.id, message_data, write_result.update_time))
+    return {"status": "Messages sent", "results": results}
 
 @app.post("/send_file")
-async def send_file(
+def send_file(
     sender_mobile: str = Body(...),
     receiver_mobile: str = Body(...),
     file_name: str = Body(...),
@@ -137,69 +264,248 @@ async def send_file(
     if not sender_ref.get().exists or not receiver_ref.get().exists:
         raise HTTPException(status_code=404, detail="User not found")
     
-    # Store file message with base64 data (for small files) or file info
+    # Store file message with base64 data (for small files) or file info.
+    # Size and type are stored alongside so history can describe the file without the data.
     message_data = {
         'sender_mobile': sender_mobile,
         'receiver_mobile': receiver_mobile,
         'content': f"📎 {file_name}",
         'file_name': file_name,
         'file_data': file_data,  # Base64 encoded
+        'file_size': base64_size(file_data),
+        'file_sha256': hashlib.sha256(base64.b64decode(file_data)).hexdigest(),
+        'content_type': guess_content_type(file_name),
         'is_file': True,
-        'timestamp': firestore.SERVER_TIMESTAMP
+        'timestamp': firestore.SERVER_TIMESTAMP,
+        **conversation_fields(sender_mobile, receiver_mobile)
     }
-    db.collection('messages').add(message_data)
+    update_time, doc_ref = db.collection('messages').add(message_data)
+    from_thread.run(push_message, stored_message(doc_ref.id, message_data, update_time))
     return {"status": "File sent", "file_name": file_name}
 
-@app.get("/messages/{mobile}")
-def get_messages(mobile: str):
-    # Get sent messages
-    sent_query = db.collection('messages').where('sender_mobile', '==', mobile)
-    sent_messages = sent_query.stream()
+# Everything but file_data; attachment bytes are fetched separately from /files/{message_id}
+MESSAGE_FIELDS = ['sender_mobile', 'receiver_mobile', 'conversation_id', 'content', 'timestamp',
+                  'is_file', 'file_name', 'file_size', 'file_sha256', 'content_type', 'client_id']
+
+def base64_size(data):
+    return len(data) * 3 // 4 - data[-2:].count('=') if data else 0
+
+def guess_content_type(file_name):
+    return mimetypes.guess_type(file_name)[0] or 'application/octet-stream'
+
+@app.get("/files/{message_id}")
+def get_file(message_id: str):
+    msg_doc = db.collection('messages').document(message_id).get()
+    msg_data = msg_doc.to_dict() if msg_doc.exists else None
+    if not msg_data or not msg_data.get('is_file'):
+        raise HTTPException(status_code=404, detail="File not found")
+    file_name = msg_data.get('file_name') or 'file'
+    headers = {'Content-Disposition': f'attachment; filename="{file_name}"'}
+    if msg_data.get('upload_id'):
+        chunks = (db.collection('uploads').document(msg_data['upload_id'])
+                  .collection('chunks').order_by('index').stream())
+        return StreamingResponse(
+            (chunk.get('data') for chunk in chunks),
+            media_type=msg_data.get('content_type') or guess_content_type(file_name),
+            headers=headers)
+    return Response(
+        content=base64.b64decode(msg_data.get('file_data') or ''),
+        media_type=msg_data.get('content_type') or guess_content_type(file_name),
+        headers=headers)
+
+@app.post("/uploads")
+def create_upload(data: UploadCreate):
+    if data.file_size > MAX_UPLOAD_SIZE:
+        raise HTTPException(status_code=413, detail="File too large")
+    sender_ref = db.collection('users').document(data.sender_mobile)
+    receiver_ref = db.collection('users').document(data.receiver_mobile)
+    if not sender_ref.get().exists or not receiver_ref.get().exists:
+        raise HTTPException(status_code=404, detail="User not found")
     
-    # Get received messages
-    received_query = db.collection('messages').where('receiver_mobile', '==', mobile)
-    received_messages = received_query.stream()
+    upload_ref = db.collection('uploads').document()
+    upload_ref.set({
+        'sender_mobile': data.sender_mobile,
+        'receiver_mobile': data.receiver_mobile,
+        'file_name': data.file_name,
+        'file_size': data.file_size,
+        'received': 0,
+        'completed': False
+    })
+    return {"upload_id": upload_ref.id, "offset": 0, "chunk_size": UPLOAD_CHUNK_SIZE}
+
+@app.get("/uploads/{upload_id}")
+def get_upload(upload_id: str):
+    # Lets an interrupted client find out where to resume from
+    upload_doc = db.collection('uploads').document(upload_id).get()
+    if not upload_doc.exists:
+        raise HTTPException(status_code=404, detail="Upload not found")
+    upload = upload_doc.to_dict()
+    return {"upload_id": upload_id, "offset": upload['received'], "chunk_size": UPLOAD_CHUNK_SIZE}
+
+@app.put("/uploads/{upload_id}")
+async def put_upload_chunk(upload_id: str, offset: int, request: Request):
+    # Only the body is read on the event loop; the blocking Firestore calls go to the threadpool
+    data = await request.body()
+    return await run_in_threadpool(store_upload_chunk, upload_id, offset, data)
+
+def store_upload_chunk(upload_id, offset, data):
+    upload_ref = db.collection('uploads').document(upload_id)
+    upload_doc = upload_ref.get()
+    if not upload_doc.exists:
+        raise HTTPException(status_code=404, detail="Upload not found")
+    upload = upload_doc.to_dict()
+    if upload['completed'] or offset != upload['received']:
+        raise HTTPException(status_code=409, detail=f"Expected offset {upload['received']}")
     
-    messages = []
-    for msg in sent_messages:
-        msg_data = msg.to_dict()
-        msg_data['id'] = msg.id
-        # Convert Firestore timestamp to string
-        if 'timestamp' in msg_data and msg_data['timestamp']:
-            try:
-                ts = msg_data['timestamp']
-                msg_data['timestamp'] = ts.strftime('%Y-%m-%d %H:%M:%S') if hasattr(ts, 'strftime') else str(ts)
-            except:
-                msg_data['timestamp'] = ''
-        else:
-            msg_data['timestamp'] = ''
-        messages.append(msg_data)
-    for msg in received_messages:
-        msg_data = msg.to_dict()
-        msg_data['id'] = msg.id
-        # Convert Firestore timestamp to string
-        if 'timestamp' in msg_data and msg_data['timestamp']:
-            try:
-                ts = msg_data['timestamp']
-                msg_data['timestamp'] = ts.strftime('%Y-%m-%d %H:%M:%S') if hasattr(ts, 'strftime') else str(ts)
-            except:
-                msg_data['timestamp'] = ''
-        else:
+    is_last = offset + len(data) == upload['file_size']
+    if len(data) == 0 or len(data) > UPLOAD_CHUNK_SIZE or (len(data) < UPLOAD_CHUNK_SIZE and not is_last):
+        raise HTTPException(status_code=400, detail="Bad chunk size")
+    
+    batch = db.batch()
+    batch.set(upload_ref.collection('chunks').document(str(offset // UPLOAD_CHUNK_SIZE)),
+              {'index': offset // UPLOAD_CHUNK_SIZE, 'data': data})
+    batch.update(upload_ref, {'received': offset + len(data)})
+    batch.commit()
+    return {"upload_id": upload_id, "offset": offset + len(data)}
+
+@app.post("/uploads/{upload_id}/complete")
+def complete_upload(upload_id: str):
+    upload_ref = db.collection('uploads').document(upload_id)
+    upload_doc = upload_ref.get()
+    if not upload_doc.exists:
+        raise HTTPException(status_code=404, detail="Upload not found")
+    upload = upload_doc.to_dict()
+    if upload['received'] != upload['file_size']:
+        raise HTTPException(status_code=409, detail=f"Expected offset {upload['received']}")
+    if upload['completed']:
+        # A retried completion after a lost response: don't post the file twice
+        return {"status": "File sent", "file_name": upload['file_name']}
+    
+    # Hashed once here so clients can recognise an attachment they already hold without fetching it
+    digest = hashlib.sha256()
+    for chunk in upload_ref.collection('chunks').order_by('index').stream():
+        digest.update(chunk.get('data'))
+    message_data = {
+        'sender_mobile': upload['sender_mobile'],
+        'receiver_mobile': upload['receiver_mobile'],
+        'content': f"📎 {upload['file_name']}",
+        'file_name': upload['file_name'],
+        'file_size': upload['file_size'],
+        'file_sha256': digest.hexdigest(),
+        'content_type': guess_content_type(upload['file_name']),
+        'upload_id': upload_id,
+        'is_file': True,
+        'timestamp': firestore.SERVER_TIMESTAMP,
+        **conversation_fields(upload['sender_mobile'], upload['receiver_mobile'])
+    }
+    update_time, doc_ref = db.collection('messages').add(message_data)
+    upload_ref.update({'completed': True})
+    from_thread.run(push_message, stored_message(doc_ref.id, message_data, update_time))
+    return {"status": "File sent", "file_name": upload['file_name']}
+
+def serialize_message(msg):
+    return format_message(msg.id, msg.to_dict())
+
+def format_message(msg_id, msg_data):
+    msg_data['id'] = msg_id
+    msg_data.pop('file_data', None)
+    msg_data.pop('participants', None)
+    # Convert Firestore timestamp to string, keep the raw value for cursors
+    ts = msg_data.get('timestamp')
+    msg_data['cursor'] = ts.isoformat(timespec='microseconds') if hasattr(ts, 'isoformat') else ''
+    if ts:
+        try:
+            msg_data['timestamp'] = ts.strftime('%Y-%m-%d %H:%M:%S') if hasattr(ts, 'strftime') else str(ts)
+        except:
             msg_data['timestamp'] = ''
-        messages.append(msg_data)
+    else:
+        msg_data['timestamp'] = ''
+    return msg_data
+
+def user_messages(mobile):
+    return (db.collection('messages')
+            .where('participants', 'array_contains', mobile)
+            .order_by('timestamp')
+            .select(MESSAGE_FIELDS))
+
+@app.get("/messages/{mobile}")
+def get_messages(mobile: str):
+    # Full history, oldest first
+    return [serialize_message(msg) for msg in user_messages(mobile).stream()]
+
+@app.get("/messages/{mobile}/since")
+def get_messages_since(mobile: str, cursor: str = "", limit: int = SYNC_PAGE_LIMIT):
+    # Delta sync: one indexed query for messages at or after the cursor the client last saw,
+    # so a poll costs what arrived since rather than the whole history. The boundary message
+    # is returned again and dropped by the client's id check. With has_more set, the client
+    # asks again from the returned cursor.
+    limit = max(1, min(limit, SYNC_PAGE_LIMIT))
+    query = user_messages(mobile)
+    if cursor:
+        try:
+            since = datetime.fromisoformat(cursor)
+        except ValueError:
+            raise HTTPException(status_code=400, detail="Invalid cursor")
+        query = query.where('timestamp', '>=', since)
     
-    # Sort by timestamp (oldest first for chat history)
-    messages.sort(key=lambda x: x.get('timestamp', ''))
+    messages = [serialize_message(msg) for msg in query.limit(limit + 1).stream()]
+    has_more = len(messages) > limit
+    messages = messages[:limit]
+    next_cursor = messages[-1]['cursor'] if messages else cursor
+    return {"cursor": next_cursor, "messages": messages, "has_more": has_more}
+
+@app.get("/conversations/{conversation}/messages")
+def get_conversation_messages(conversation: str, after: str = "", before: str = "", limit: int = 50):
+    # A page of one conversation, oldest first, from a single query on (conversation_id,
+    # timestamp). after and before are message ids: after pages forward from a message,
+    # before pages back from one, and with neither the newest page is returned.
+    limit = max(1, min(limit, HISTORY_PAGE_LIMIT))
+    messages_ref = db.collection('messages')
+    anchors = {}
+    for name, message_id in (('after', after), ('before', before)):
+        if message_id:
+            anchor = messages_ref.document(message_id).get()
+            if not anchor.exists or anchor.get('conversation_id') != conversation:
+                raise HTTPException(status_code=404, detail="Message not found")
+            anchors[name] = anchor
     
-    print(f"Returning {len(messages)} messages for mobile: {mobile}")
-    for msg in messages[:5]:  # Print first 5 for debugging
-        print(f"  {msg.get('sender_mobile')} -> {msg.get('receiver_mobile')}: {msg.get('content')[:30]}...")
+    query = messages_ref.where('conversation_id', '==', conversation)
+    if 'after' in anchors:
+        query = query.order_by('timestamp').start_after(anchors['after'])
+        if 'before' in anchors:
+            query = query.end_before(anchors['before'])
+    else:
+        query = query.order_by('timestamp', direction=firestore.Query.DESCENDING)
+        if 'before' in anchors:
+            query = query.start_after(anchors['before'])
     
-    return messages
+    messages = [serialize_message(msg) for msg in query.select(MESSAGE_FIELDS).limit(limit + 1).stream()]
+    has_more = len(messages) > limit
+    messages = messages[:limit]
+    if 'after' not in anchors:
+        messages.reverse()
+    return {"messages": messages, "has_more": has_more}
 
 # WebSocket for real-time messaging
 active_connections = {}
 
+def stored_message(msg_id, message_data, update_time):
+    # SERVER_TIMESTAMP resolves to the commit time, which add() hands back as update_time
+    return format_message(msg_id, dict(message_data, timestamp=update_time))
+
+async def push_message(message):
+    # Deliver to both sides so the sender's other sessions see it too; clients dedupe by id
+    for mobile in {message['sender_mobile'], message['receiver_mobile']}:
+        connection = active_connections.get(mobile)
+        if connection is None:
+            continue
+        try:
+            await connection.send_text(json.dumps(message))
+        except Exception:
+            # The client falls back to polling until it reconnects
+            if active_connections.get(mobile) is connection:
+                del active_connections[mobile]
+
 @app.websocket("/ws/{mobile}")
 async def websocket_endpoint(websocket: WebSocket, mobile: str):
     await websocket.accept()
@@ -210,20 +516,14 @@ async def websocket_endpoint(websocket: WebSocket, mobile: str):
             message_data = json.loads(data)
             receiver_mobile = message_data.get("receiver_mobile")
             content = message_data.get("content")
+            client_id = message_data.get("client_id")
             
             # Save to Firestore
-            db.collection('messages').add({
-                'sender_mobile': mobile,
-                'receiver_mobile': receiver_mobile,
-                'content': content,
-                'timestamp': firestore.SERVER_TIMESTAMP
-            })
+            message_data = new_message(mobile, receiver_mobile, content, client_id)
+            update_time, doc_ref = db.collection('messages').add(message_data)
             
             # Send to receiver if connected
-            if receiver_mobile in active_connections:
-                await active_connections[receiver_mobile].send_text(json.dumps({
-                    "sender_mobile": mobile,
-                    "content": content
-                }))
+            await push_message(stored_message(doc_ref.id, message_data, update_time))
     except WebSocketDisconnect:
-        del active_connections[mobile]
\ No newline at end of file
+        if active_connections.get(mobile) is websocket:
+            del active_connections[mobile]
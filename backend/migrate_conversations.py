@@ -0,0 +1,41 @@
+# One-off backfill of conversation_id and participants on messages written before they
+# existed. Sync and history queries only see messages that have them, so run this once
+# against each database before deploying the server that relies on them:
+#
+#     python migrate_conversations.py
+#
+# It is safe to re-run; messages that already have both fields are skipped.
+from main import db, conversation_fields
+
+BATCH_SIZE = 400  # Firestore allows 500 writes per batch
+
+
+def migrate():
+    batch = db.batch()
+    pending = 0
+    updated = 0
+    scanned = 0
+    for msg in db.collection('messages').select(['sender_mobile', 'receiver_mobile', 'conversation_id', 'participants']).stream():
+        scanned += 1
+        data = msg.to_dict()
+        if data.get('conversation_id') and data.get('participants'):
+            continue
+        if not data.get('sender_mobile') or not data.get('receiver_mobile'):
+            print(f"Skipping {msg.id}: missing sender or receiver")
+            continue
+        batch.update(msg.reference, conversation_fields(data['sender_mobile'], data['receiver_mobile']))
+        pending += 1
+        if pending == BATCH_SIZE:
+            batch.commit()
+            updated += pending
+            print(f"Updated {updated} messages")
+            batch = db.batch()
+            pending = 0
+    if pending:
+        batch.commit()
+        updated += pending
+    print(f"Done: scanned {scanned} messages, updated {updated}")
+
+
+if __name__ == "__main__":
+    migrate()